@@ -0,0 +1,105 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne.benchmark;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import com.jerolba.jmnemohistosyne.HistogramSource;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+
+/**
+ * Generates GC.class_histogram outputs with the same format and a similar mix of
+ * class names than the recorded from real applications: JDK classes with
+ * module, arrays, application classes, inner classes and lambdas.
+ */
+final class HistogramOutputs {
+
+    private static final String[] PACKAGES = { "java.util", "java.util.concurrent", "java.lang.invoke",
+            "com.acme.service", "com.acme.domain.model", "org.hibernate.internal", "io.netty.buffer",
+            "org.springframework.beans.factory.support" };
+
+    private static final String[] SUFFIXES = { "", "", "", "$$Lambda$%d/0x0000000800%05x", "Impl",
+            "" };
+
+    private HistogramOutputs() {
+    }
+
+    /**
+     * Creates a histogram output with the number of classes, sorted by bytes like
+     * jcmd does
+     */
+    static byte[] jcmdOutput(int classes, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder(classes * 90);
+        sb.append("12345:\n");
+        sb.append(" num     #instances         #bytes  class name (module)\n");
+        sb.append("-------------------------------------------------------\n");
+        long bytes = 500_000_000L;
+        long totalInstances = 0;
+        long totalBytes = 0;
+        for (int i = 0; i < classes; i++) {
+            bytes = Math.max(16, bytes - rnd.nextInt((int) Math.min(Integer.MAX_VALUE, bytes / 50 + 1)));
+            long instances = Math.max(1, bytes / (16 + rnd.nextInt(64)));
+            totalInstances += instances;
+            totalBytes += bytes;
+            sb.append(String.format("%5d: %14d %14d  %s%n", i + 1, instances, bytes, className(i, rnd)));
+        }
+        sb.append(String.format("Total %14d %14d%n", totalInstances, totalBytes));
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    static HistogramSource source(byte[] output) {
+        return () -> new ByteArrayInputStream(output);
+    }
+
+    /**
+     * Creates a MemoryHistogram with the number of classes, randomly modifying a
+     * fraction of the values of the reference histogram if it's present
+     */
+    static MemoryHistogram histogram(int classes, long seed, MemoryHistogram reference) {
+        Random rnd = new Random(seed);
+        MemoryHistogram histogram = new MemoryHistogram(classes);
+        for (int i = 0; i < classes; i++) {
+            String name = "com.acme.generated" + (i % 97) + ".Class" + i;
+            long instances = 1 + rnd.nextInt(100_000);
+            if (reference != null && rnd.nextInt(10) != 0) {
+                instances = reference.get(name).getInstances();
+            }
+            histogram.add(name, instances, instances * 24);
+        }
+        return histogram;
+    }
+
+    private static String className(int i, Random rnd) {
+        switch (i % 10) {
+        case 0:
+            return "[B (java.base@11.0.2)";
+        case 1:
+            return "[Ljava.lang.Object; (java.base@11.0.2)";
+        case 2:
+            return "java.lang.String (java.base@11.0.2)";
+        default:
+            String pkg = PACKAGES[rnd.nextInt(PACKAGES.length)];
+            String suffix = String.format(SUFFIXES[rnd.nextInt(SUFFIXES.length)], i, i);
+            String module = pkg.startsWith("java.") ? " (java.base@11.0.2)" : "";
+            return pkg + ".Class" + i + suffix + module;
+        }
+    }
+
+}
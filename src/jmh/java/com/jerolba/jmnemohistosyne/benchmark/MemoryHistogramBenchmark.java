@@ -0,0 +1,115 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jerolba.jmnemohistosyne.DiffOptions;
+import com.jerolba.jmnemohistosyne.HistogramEntry;
+import com.jerolba.jmnemohistosyne.HistogramFilter;
+import com.jerolba.jmnemohistosyne.HistogramKey;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+
+/**
+ * Measures diff, filter, top and lookup operations over histograms
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryHistogramBenchmark {
+
+    @Param({ "1000", "10000", "60000" })
+    private int classes;
+
+    private MemoryHistogram reference;
+    private MemoryHistogram current;
+    private Pattern pattern;
+    private HistogramFilter compiledFilter;
+    private String lookupName;
+
+    @Setup
+    public void setup() {
+        reference = HistogramOutputs.histogram(classes, 1, null);
+        current = HistogramOutputs.histogram(classes, 2, reference);
+        pattern = Pattern.compile(".*generated1\\..*");
+        lookupName = "com.acme.generated" + (classes / 2 % 97) + ".Class" + (classes / 2);
+        compiledFilter = HistogramFilter.compile("com.acme.generated1.*", "com.acme.generated2*", lookupName,
+                ArrayList.class, pattern);
+    }
+
+    @Benchmark
+    public MemoryHistogram diff() {
+        return current.diff(reference);
+    }
+
+    @Benchmark
+    public MemoryHistogram diffTop() {
+        return current.diff(reference, DiffOptions.all().minBytes(1024).top(20));
+    }
+
+    @Benchmark
+    public MemoryHistogram filterString() {
+        return current.filter("com.acme.generated1.*", lookupName);
+    }
+
+    @Benchmark
+    public MemoryHistogram filterPattern() {
+        return current.filter(pattern);
+    }
+
+    @Benchmark
+    public MemoryHistogram filterClass() {
+        return current.filter(ArrayList.class, String.class);
+    }
+
+    @Benchmark
+    public MemoryHistogram filterCompiled() {
+        return current.filter(compiledFilter);
+    }
+
+    @Benchmark
+    public MemoryHistogram getTop() {
+        return current.getTop(20);
+    }
+
+    @Benchmark
+    public MemoryHistogram getTopByInstances() {
+        return current.getTop(20, HistogramKey.INSTANCES);
+    }
+
+    @Benchmark
+    public HistogramEntry get() {
+        return current.get(lookupName);
+    }
+
+}
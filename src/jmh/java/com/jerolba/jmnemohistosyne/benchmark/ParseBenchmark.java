@@ -0,0 +1,73 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jerolba.jmnemohistosyne.HistogramSource;
+import com.jerolba.jmnemohistosyne.Histogramer;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+
+/**
+ * Measures the parsing of class histogram outputs, without the cost of
+ * executing the diagnostic command. createHistogram reuses the class names
+ * translated by previous invocations, while createHistogramColdCache parses
+ * with a new Histogramer, like the first capture of a process.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({ "1000", "10000", "60000" })
+    private int classes;
+
+    private HistogramSource source;
+    private Histogramer histogramer;
+
+    @Setup
+    public void setup() {
+        byte[] output = HistogramOutputs.jcmdOutput(classes, 42);
+        source = HistogramOutputs.source(output);
+        histogramer = new Histogramer(source);
+    }
+
+    @Benchmark
+    public MemoryHistogram createHistogram() {
+        return histogramer.createHistogram();
+    }
+
+    @Benchmark
+    public MemoryHistogram createHistogramColdCache() {
+        return new Histogramer(source).createHistogram();
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.jerolba.jmnemohistosyne.MemoryHistogram.SimpleMap;
+
+/**
+ * Measures SimpleMap put and get operations
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleMapBenchmark {
+
+    @Param({ "1000", "10000", "60000" })
+    private int size;
+
+    private String[] keys;
+    private SimpleMap<String, String> map;
+
+    @Setup
+    public void setup() {
+        keys = new String[size];
+        map = new SimpleMap<>();
+        for (int i = 0; i < size; i++) {
+            keys[i] = "com.acme.generated" + (i % 97) + ".Class" + i;
+            map.put(keys[i], keys[i]);
+        }
+    }
+
+    @Benchmark
+    public SimpleMap<String, String> put() {
+        SimpleMap<String, String> newMap = new SimpleMap<>();
+        for (String key : keys) {
+            newMap.put(key, key);
+        }
+        return newMap;
+    }
+
+    @Benchmark
+    public void get(Blackhole bh) {
+        for (String key : keys) {
+            bh.consume(map.get(key));
+        }
+    }
+
+}
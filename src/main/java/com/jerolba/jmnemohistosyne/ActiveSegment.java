@@ -0,0 +1,245 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Segment of a HistogramStore which is being filled. Each snapshot is appended
+ * to a log file as a record with the rows of the histogram, and only the
+ * timestamp and position of each record, and the position of the rows of each
+ * class, are kept in memory. Queries read the rows of the class memory mapped,
+ * and the class columns are built from the log when the segment is written as a
+ * MappedSegment.
+ *
+ * <pre>
+ * record: length (4 bytes) | timestamp (8 bytes) | rows (varint)
+ *         rows x (varint class id | zigzag instances | zigzag bytes)
+ * </pre>
+ */
+final class ActiveSegment implements Segment {
+
+    /**
+     * Receives the rows of the logged snapshots
+     */
+    @FunctionalInterface
+    interface RowVisitor {
+
+        void visit(int snapshot, int classId, long instances, long bytes);
+
+    }
+
+    private final Path path;
+    private OutputStream log;
+    private long[] timestamps = new long[64];
+    private long[] positions = new long[65];
+    private int snapshots = 0;
+    // Positions in the log of the rows of each class, in snapshot order
+    private long[][] rowPositions = new long[0][];
+    private int[] rowCounts = new int[0];
+
+    /**
+     * Opens the log file, recovering the snapshots of a previous execution.
+     * Records partially written by an interrupted append are discarded, and the
+     * whole log is discarded if its snapshots are not newer than lastTimestamp,
+     * because they were already written to a segment before the log was
+     * truncated.
+     */
+    ActiveSegment(Path path, long lastTimestamp) throws IOException {
+        this.path = path;
+        if (Files.exists(path)) {
+            recover(lastTimestamp);
+        }
+        log = Files.newOutputStream(path, CREATE, APPEND);
+    }
+
+    /**
+     * Appends a record to the log
+     */
+    void append(long timestamp, byte[] record) throws IOException {
+        log.write(record);
+        log.flush();
+        indexRows(ByteBuffer.wrap(record), positions[snapshots]);
+        addSnapshot(timestamp, positions[snapshots] + record.length);
+    }
+
+    /**
+     * Visits the rows of the snapshots between from (inclusive) and to
+     * (exclusive), in snapshot order
+     */
+    void visitRows(int from, int to, RowVisitor visitor) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            buffer = channel.map(MapMode.READ_ONLY, positions[from], positions[to] - positions[from]);
+        }
+        for (int snapshot = from; snapshot < to; snapshot++) {
+            buffer.position(buffer.position() + 4 + 8);
+            int rows = (int) HistogramCodec.readVarint(buffer);
+            for (int row = 0; row < rows; row++) {
+                int classId = (int) HistogramCodec.readVarint(buffer);
+                long instances = HistogramCodec.readZigzag(buffer);
+                long bytes = HistogramCodec.readZigzag(buffer);
+                visitor.visit(snapshot, classId, instances, bytes);
+            }
+        }
+    }
+
+    /**
+     * Removes all snapshots, truncating the log
+     */
+    void clear() throws IOException {
+        log.close();
+        log = Files.newOutputStream(path, CREATE, TRUNCATE_EXISTING, WRITE);
+        snapshots = 0;
+        clearIndex();
+    }
+
+    void close() throws IOException {
+        log.close();
+    }
+
+    @Override
+    public int snapshots() {
+        return snapshots;
+    }
+
+    @Override
+    public long timestamp(int snapshot) {
+        return timestamps[snapshot];
+    }
+
+    @Override
+    public void visit(int classId, int from, int to, EntryVisitor visitor) {
+        if (from >= to || classId >= rowCounts.length || rowCounts[classId] == 0) {
+            return;
+        }
+        long[] rows = rowPositions[classId];
+        int count = rowCounts[classId];
+        // Rows are never at the start of a record, so the search always returns an insertion point
+        int first = -Arrays.binarySearch(rows, 0, count, positions[from]) - 1;
+        int last = -Arrays.binarySearch(rows, 0, count, positions[to]) - 1;
+        if (first == last) {
+            return;
+        }
+        long start = rows[first];
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            ByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, positions[to] - start);
+            int snapshot = from;
+            for (int i = first; i < last; i++) {
+                while (positions[snapshot + 1] <= rows[i]) {
+                    snapshot++;
+                }
+                buffer.position((int) (rows[i] - start));
+                HistogramCodec.readVarint(buffer);
+                long instances = HistogramCodec.readZigzag(buffer);
+                long bytes = HistogramCodec.readZigzag(buffer);
+                visitor.visit(snapshot, instances, bytes);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds the rows of the record, which starts at the position of the log, to the
+     * index of rows of each class
+     */
+    private void indexRows(ByteBuffer record, long position) {
+        record.position(record.position() + 4 + 8);
+        int rows = (int) HistogramCodec.readVarint(record);
+        for (int row = 0; row < rows; row++) {
+            long rowPosition = position + record.position();
+            int classId = (int) HistogramCodec.readVarint(record);
+            HistogramCodec.readZigzag(record);
+            HistogramCodec.readZigzag(record);
+            addRow(classId, rowPosition);
+        }
+    }
+
+    private void addRow(int classId, long rowPosition) {
+        if (classId >= rowCounts.length) {
+            int capacity = Math.max(classId + 1, rowCounts.length * 2);
+            rowPositions = Arrays.copyOf(rowPositions, capacity);
+            rowCounts = Arrays.copyOf(rowCounts, capacity);
+        }
+        long[] rows = rowPositions[classId];
+        if (rows == null) {
+            rows = new long[8];
+            rowPositions[classId] = rows;
+        } else if (rowCounts[classId] == rows.length) {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+            rowPositions[classId] = rows;
+        }
+        rows[rowCounts[classId]++] = rowPosition;
+    }
+
+    private void clearIndex() {
+        rowPositions = new long[0][];
+        rowCounts = new int[0];
+    }
+
+    private void addSnapshot(long timestamp, long end) {
+        if (snapshots == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, snapshots * 2);
+            positions = Arrays.copyOf(positions, snapshots * 2 + 1);
+        }
+        timestamps[snapshots] = timestamp;
+        positions[++snapshots] = end;
+    }
+
+    private void recover(long lastTimestamp) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+            ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= 4 + 8) {
+                int start = buffer.position();
+                ByteBuffer record = buffer.slice();
+                int length = buffer.getInt();
+                if (length < 8 || buffer.remaining() < length) {
+                    break;
+                }
+                long timestamp = buffer.getLong(buffer.position());
+                if (timestamp <= lastTimestamp) {
+                    snapshots = 0;
+                    clearIndex();
+                    break;
+                }
+                buffer.position(buffer.position() + length);
+                indexRows(record, start);
+                addSnapshot(timestamp, buffer.position());
+            }
+            if (positions[snapshots] < channel.size()) {
+                channel.truncate(positions[snapshots]);
+            }
+        }
+    }
+
+}
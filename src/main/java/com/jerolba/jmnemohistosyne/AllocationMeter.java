@@ -0,0 +1,107 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Measures the bytes allocated while executing a code block, including the
+ * objects which became garbage, by the calling thread and optionally a set of
+ * worker threads.
+ *
+ * It's based on the per thread allocation counters of the JVM, so doesn't
+ * trigger any GC or histogram, and it's cheap enough to wrap hot code. Bytes
+ * allocated by other threads during the execution are not counted.
+ */
+public class AllocationMeter {
+
+    private final ThreadMXBean threads;
+    private final long[] workerIds;
+
+    /**
+     * Creates a meter of the calling thread
+     */
+    public AllocationMeter() {
+        this(new Thread[0]);
+    }
+
+    /**
+     * Creates a meter of the calling thread and the worker threads
+     */
+    public AllocationMeter(Collection<Thread> workers) {
+        this(workers.toArray(new Thread[workers.size()]));
+    }
+
+    /**
+     * Creates a meter of the calling thread and the worker threads
+     *
+     * @throws UnsupportedOperationException if the JVM doesn't measure thread
+     *         allocations
+     */
+    public AllocationMeter(Thread... workers) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("JVM doesn't support thread allocated memory measurement");
+        }
+        this.threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemoryEnabled()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+        }
+        this.workerIds = new long[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            workerIds[i] = workers[i].getId();
+        }
+    }
+
+    /**
+     * Checks if current JVM exposes the allocated bytes of each thread
+     */
+    public static boolean isSupported() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof ThreadMXBean && ((ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+    }
+
+    /**
+     * Executes the code and returns the bytes allocated meanwhile by the calling
+     * thread and the worker threads
+     */
+    public long measure(Runnable code) {
+        long[] workersBefore = workersAllocated();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        code.run();
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        long[] workersAfter = workersAllocated();
+        for (int i = 0; i < workerIds.length; i++) {
+            // Threads not alive report -1, and just started threads can report
+            // inconsistent values
+            if (workersBefore[i] >= 0 && workersAfter[i] >= workersBefore[i]) {
+                allocated += workersAfter[i] - workersBefore[i];
+            }
+        }
+        return allocated;
+    }
+
+    private long[] workersAllocated() {
+        if (workerIds.length == 0) {
+            return workerIds;
+        }
+        return threads.getThreadAllocatedBytes(workerIds);
+    }
+
+}
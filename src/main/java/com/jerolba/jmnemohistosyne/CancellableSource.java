@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source which keeps the stream being read, to close it when the capture is
+ * cancelled. Closing the output of a jcmd process kills it. Reads after the
+ * cancellation fail, so a killed process is never parsed as a partial
+ * histogram.
+ */
+class CancellableSource implements HistogramSource {
+
+    private final HistogramSource source;
+    private InputStream stream;
+    private volatile boolean cancelled = false;
+
+    CancellableSource(HistogramSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public InputStream execute() throws IOException {
+        InputStream is = new CancellableInputStream(source.execute());
+        synchronized (this) {
+            stream = is;
+            if (cancelled) {
+                is.close();
+                throw new IOException("Capture cancelled");
+            }
+        }
+        return is;
+    }
+
+    @Override
+    public HistogramMode getMode() {
+        return source.getMode();
+    }
+
+    @Override
+    public boolean isCurrentProcess() {
+        return source.isCurrentProcess();
+    }
+
+    synchronized void cancel() {
+        cancelled = true;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // The capture will fail anyway
+            }
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    private class CancellableInputStream extends FilterInputStream {
+
+        CancellableInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            checkCancelled();
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            checkCancelled();
+            return read;
+        }
+
+        private void checkCancelled() throws IOException {
+            if (cancelled) {
+                throw new IOException("Capture cancelled");
+            }
+        }
+
+    }
+
+}
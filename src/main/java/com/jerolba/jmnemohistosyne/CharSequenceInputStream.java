@@ -0,0 +1,104 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.io.InputStream;
+
+/**
+ * InputStream which encodes a CharSequence in UTF-8 while it's read, without
+ * copying the whole content to a byte array.
+ */
+class CharSequenceInputStream extends InputStream {
+
+    private final CharSequence content;
+    private final byte[] pending = new byte[4];
+    private int position = 0;
+    private int pendingPosition = 0;
+    private int pendingLength = 0;
+
+    CharSequenceInputStream(CharSequence content) {
+        this.content = content;
+    }
+
+    @Override
+    public int read() {
+        if (pendingPosition == pendingLength && !encodeNext()) {
+            return -1;
+        }
+        return pending[pendingPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int count = 0;
+        while (count < len) {
+            if (pendingPosition < pendingLength) {
+                b[off + count++] = pending[pendingPosition++];
+                continue;
+            }
+            if (position == content.length()) {
+                break;
+            }
+            char c = content.charAt(position);
+            if (c < 0x80) {
+                b[off + count++] = (byte) c;
+                position++;
+            } else {
+                encodeNext();
+            }
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Encodes next char, or surrogate pair, into the pending bytes buffer
+     */
+    private boolean encodeNext() {
+        if (position == content.length()) {
+            return false;
+        }
+        int cp = content.charAt(position++);
+        if (Character.isHighSurrogate((char) cp) && position < content.length()
+                && Character.isLowSurrogate(content.charAt(position))) {
+            cp = Character.toCodePoint((char) cp, content.charAt(position++));
+        }
+        pendingPosition = 0;
+        if (cp < 0x80) {
+            pending[0] = (byte) cp;
+            pendingLength = 1;
+        } else if (cp < 0x800) {
+            pending[0] = (byte) (0xC0 | (cp >> 6));
+            pending[1] = (byte) (0x80 | (cp & 0x3F));
+            pendingLength = 2;
+        } else if (cp < 0x10000) {
+            pending[0] = (byte) (0xE0 | (cp >> 12));
+            pending[1] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            pending[2] = (byte) (0x80 | (cp & 0x3F));
+            pendingLength = 3;
+        } else {
+            pending[0] = (byte) (0xF0 | (cp >> 18));
+            pending[1] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            pending[2] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            pending[3] = (byte) (0x80 | (cp & 0x3F));
+            pendingLength = 4;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.Arrays;
+
+/**
+ * Cache of the translation of raw class names, as written by the
+ * GC.class_histogram command, to the id of the translated name in the
+ * ClassNameTable of a Histogramer. It's kept between histograms, so the names of
+ * classes already seen are not decoded or translated again, and no String is
+ * created for them.
+ *
+ * Raw names are copied into a single byte array, and indexed by an open
+ * addressing hash table of int positions. If the cache grows over its maximum
+ * size it's cleared.
+ */
+final class ClassNameCache {
+
+    /**
+     * Id of raw names not present in the cache
+     */
+    static final int ABSENT = -2;
+
+    /**
+     * Id of raw names whose class must be ignored
+     */
+    static final int IGNORED = -1;
+
+    private static final int MAX_ENTRIES = 1 << 18;
+
+    private byte[] bytes;
+    private int bytesSize;
+    private int[] offsets;
+    private int[] lengths;
+    private int[] hashes;
+    private int[] ids;
+    private int[] slots;
+    private int size;
+
+    ClassNameCache(int expectedSize) {
+        int capacity = Math.max(expectedSize, 16);
+        bytes = new byte[capacity * 32];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        hashes = new int[capacity];
+        ids = new int[capacity];
+        slots = new int[slotsFor(capacity)];
+    }
+
+    /**
+     * Returns the id cached for the raw name, or ABSENT if it's not present
+     */
+    synchronized int get(byte[] name, int from, int to) {
+        int idx = slots[findSlot(name, from, to, hash(name, from, to))];
+        return idx == 0 ? ABSENT : ids[idx - 1];
+    }
+
+    /**
+     * Caches the id of the raw name
+     */
+    synchronized void put(byte[] name, int from, int to, int id) {
+        int hash = hash(name, from, to);
+        int slot = findSlot(name, from, to, hash);
+        if (slots[slot] != 0) {
+            ids[slots[slot] - 1] = id;
+            return;
+        }
+        if (size == MAX_ENTRIES) {
+            clear();
+            slot = findSlot(name, from, to, hash);
+        } else if (size == ids.length) {
+            grow();
+            slot = findSlot(name, from, to, hash);
+        }
+        int length = to - from;
+        if (bytesSize + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, bytesSize + length));
+        }
+        System.arraycopy(name, from, bytes, bytesSize, length);
+        offsets[size] = bytesSize;
+        lengths[size] = length;
+        hashes[size] = hash;
+        ids[size] = id;
+        bytesSize += length;
+        slots[slot] = ++size;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private int findSlot(byte[] name, int from, int to, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int idx = slots[slot];
+        while (idx != 0) {
+            if (hashes[idx - 1] == hash && sameBytes(idx - 1, name, from, to)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+            idx = slots[slot];
+        }
+        return slot;
+    }
+
+    private boolean sameBytes(int entry, byte[] name, int from, int to) {
+        if (lengths[entry] != to - from) {
+            return false;
+        }
+        int offset = offsets[entry];
+        for (int i = from; i < to; i++) {
+            if (bytes[offset++] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        slots = new int[slotsFor(capacity)];
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hashes[i] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    private void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+        bytesSize = 0;
+    }
+
+    private static int slotsFor(int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    private static int hash(byte[] name, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + name[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+}
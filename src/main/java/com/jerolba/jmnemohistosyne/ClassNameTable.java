@@ -0,0 +1,153 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.Arrays;
+
+import com.jerolba.jmnemohistosyne.MemoryHistogram.SimpleMap;
+
+/**
+ * Dictionary of class names shared by a group of histograms, like the ones
+ * captured by a Histogramer. Each distinct class name is stored once and
+ * identified by a dense int id, which histograms use to store and join their
+ * columns. The table also records the JPMS module of each class, if it's known.
+ *
+ * Names are indexed by an open addressing hash table of int positions, avoiding
+ * the use of java.util collections which would pollute the measured heap.
+ *
+ * Names are never removed, because histograms reference them by id. Each
+ * histogram keeps a reference to its table, so a table is released with its
+ * owner and the last histogram which uses it.
+ */
+final class ClassNameTable {
+
+    private volatile String[] names;
+    private volatile String[] modules;
+    private final SimpleMap<String, String> moduleNames = new SimpleMap<>();
+    private int[] hashes;
+    private int[] slots;
+    private int size;
+
+    ClassNameTable(int expectedSize) {
+        int capacity = Math.max(expectedSize, 16);
+        names = new String[capacity];
+        modules = new String[capacity];
+        hashes = new int[capacity];
+        slots = new int[slotsFor(capacity)];
+    }
+
+    /**
+     * Returns the id of the class name, adding it to the table if it's not present
+     */
+    synchronized int intern(String name) {
+        int hash = hash(name);
+        int slot = findSlot(name, hash);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        if (size == names.length) {
+            grow();
+            slot = findSlot(name, hash);
+        }
+        int id = size++;
+        names[id] = name;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        return id;
+    }
+
+    /**
+     * Returns the id of the class name, adding it to the table if it's not
+     * present, and records its module if it was unknown
+     */
+    synchronized int intern(String name, String module) {
+        int id = intern(name);
+        if (module != null && modules[id] == null) {
+            String canonical = moduleNames.get(module);
+            if (canonical == null) {
+                moduleNames.put(module, module);
+                canonical = module;
+            }
+            modules[id] = canonical;
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the class name, or -1 if it's not present
+     */
+    synchronized int find(String name) {
+        return slots[findSlot(name, hash(name))] - 1;
+    }
+
+    /**
+     * Returns the class name with the given id
+     */
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns the module of the class with the given id, or null if it's unknown
+     */
+    String module(int id) {
+        return modules[id];
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    private int findSlot(String name, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        int idx = slots[slot];
+        while (idx != 0) {
+            if (hashes[idx - 1] == hash && names[idx - 1].equals(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+            idx = slots[slot];
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = names.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        slots = new int[slotsFor(capacity)];
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hashes[i] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+        modules = Arrays.copyOf(modules, capacity);
+        names = Arrays.copyOf(names, capacity);
+    }
+
+    private static int slotsFor(int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+}
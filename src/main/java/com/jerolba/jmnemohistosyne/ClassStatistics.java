@@ -0,0 +1,116 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+/**
+ * Statistics of the instances and bytes of a class along the iterations of a
+ * repeated measurement
+ */
+public class ClassStatistics {
+
+    private final String className;
+    private final double medianInstances;
+    private final long minInstances;
+    private final long maxInstances;
+    private final double stdDevInstances;
+    private final double medianSize;
+    private final long minSize;
+    private final long maxSize;
+    private final double stdDevSize;
+
+    ClassStatistics(String className, long[] instances, long[] sizes) {
+        this.className = className;
+        this.medianInstances = median(instances);
+        this.minInstances = instances[0];
+        this.maxInstances = instances[instances.length - 1];
+        this.stdDevInstances = stdDev(instances);
+        this.medianSize = median(sizes);
+        this.minSize = sizes[0];
+        this.maxSize = sizes[sizes.length - 1];
+        this.stdDevSize = stdDev(sizes);
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public double getMedianInstances() {
+        return medianInstances;
+    }
+
+    public long getMinInstances() {
+        return minInstances;
+    }
+
+    public long getMaxInstances() {
+        return maxInstances;
+    }
+
+    public double getStdDevInstances() {
+        return stdDevInstances;
+    }
+
+    /**
+     * Median of the bytes of the class
+     */
+    public double getMedianSize() {
+        return medianSize;
+    }
+
+    public long getMinSize() {
+        return minSize;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public double getStdDevSize() {
+        return stdDevSize;
+    }
+
+    @Override
+    public String toString() {
+        return className + "," + medianInstances + "," + minInstances + "," + maxInstances + "," + stdDevInstances
+                + "," + medianSize + "," + minSize + "," + maxSize + "," + stdDevSize;
+    }
+
+    /**
+     * Median of sorted values, the mean of both middle values if the number of
+     * values is even
+     */
+    static double median(long[] sorted) {
+        int middle = sorted.length / 2;
+        if (sorted.length % 2 == 1) {
+            return sorted[middle];
+        }
+        return (sorted[middle - 1] + sorted[middle]) / 2.0;
+    }
+
+    private static double stdDev(long[] values) {
+        double mean = 0;
+        for (long value : values) {
+            mean += value;
+        }
+        mean /= values.length;
+        double sum = 0;
+        for (long value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(sum / values.length);
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import static java.util.Arrays.asList;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * Executes the GC.class_histogram diagnostic command in-process, invoking the
+ * gcClassHistogram operation of the platform DiagnosticCommand MBean. Avoids
+ * forking a jcmd process and attaching to the JVM, and doesn't require a JDK.
+ */
+public class DiagnosticCommandHistogramSource implements HistogramSource {
+
+    private static final String OPERATION = "gcClassHistogram";
+    private static final String[] SIGNATURE = new String[] { String[].class.getName() };
+
+    private final MBeanServer server;
+    private final ObjectName diagnosticCommand;
+    private final HistogramMode mode;
+
+    public DiagnosticCommandHistogramSource() {
+        this(HistogramMode.LIVE);
+    }
+
+    /**
+     * Creates a source which counts the objects of the given mode
+     */
+    public DiagnosticCommandHistogramSource(HistogramMode mode) {
+        this.server = ManagementFactory.getPlatformMBeanServer();
+        this.diagnosticCommand = diagnosticCommandName();
+        this.mode = mode;
+    }
+
+    /**
+     * Checks if current JVM exposes the DiagnosticCommand MBean with the class
+     * histogram operation
+     */
+    public static boolean isAvailable() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            return asList(server.getMBeanInfo(diagnosticCommandName()).getOperations()).stream()
+                    .anyMatch(op -> op.getName().equals(OPERATION));
+        } catch (JMException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public InputStream execute() {
+        try {
+            Object[] params = new Object[] { mode.arguments() };
+            String output = (String) server.invoke(diagnosticCommand, OPERATION, params, SIGNATURE);
+            return new CharSequenceInputStream(output);
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public HistogramMode getMode() {
+        return mode;
+    }
+
+    private static ObjectName diagnosticCommandName() {
+        try {
+            return new ObjectName("com.sun.management:type=DiagnosticCommand");
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
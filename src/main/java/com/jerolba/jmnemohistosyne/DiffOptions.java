@@ -0,0 +1,98 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+/**
+ * Options to prune the result of a histogram diff, keeping only the classes
+ * with the biggest changes. Instances are immutable and each method returns a
+ * new copy with the option applied.
+ *
+ * Pruned classes are aggregated in an entry named
+ * {@link MemoryHistogram#OTHER_CLASSES}, so the total memory of a pruned diff
+ * is the same as the complete diff.
+ */
+public final class DiffOptions {
+
+    private static final DiffOptions ALL = new DiffOptions(0, 0.0, false, Integer.MAX_VALUE);
+
+    private final long minBytes;
+    private final double minRelativeChange;
+    private final boolean growthOnly;
+    private final int top;
+
+    private DiffOptions(long minBytes, double minRelativeChange, boolean growthOnly, int top) {
+        this.minBytes = minBytes;
+        this.minRelativeChange = minRelativeChange;
+        this.growthOnly = growthOnly;
+        this.top = top;
+    }
+
+    /**
+     * Options which don't prune any changed class
+     */
+    public static DiffOptions all() {
+        return ALL;
+    }
+
+    /**
+     * Keeps only classes whose size changed at least minBytes, in absolute value
+     */
+    public DiffOptions minBytes(long minBytes) {
+        return new DiffOptions(minBytes, minRelativeChange, growthOnly, top);
+    }
+
+    /**
+     * Keeps only classes whose size changed at least the ratio of its size in the
+     * reference histogram. Classes not present in the reference always pass.
+     * For example, 0.1 keeps classes which changed by 10% or more.
+     */
+    public DiffOptions minRelativeChange(double minRelativeChange) {
+        return new DiffOptions(minBytes, minRelativeChange, growthOnly, top);
+    }
+
+    /**
+     * Keeps only classes whose size increased
+     */
+    public DiffOptions growthOnly() {
+        return new DiffOptions(minBytes, minRelativeChange, true, top);
+    }
+
+    /**
+     * Keeps only the top K classes with biggest absolute change of size
+     */
+    public DiffOptions top(int top) {
+        if (top < 0) {
+            throw new IllegalArgumentException("Top must be positive");
+        }
+        return new DiffOptions(minBytes, minRelativeChange, growthOnly, top);
+    }
+
+    boolean accepts(long sizeDelta, long referenceSize) {
+        if (growthOnly && sizeDelta <= 0) {
+            return false;
+        }
+        long absDelta = Math.abs(sizeDelta);
+        if (absDelta < minBytes) {
+            return false;
+        }
+        return referenceSize == 0 || absDelta >= minRelativeChange * Math.abs(referenceSize);
+    }
+
+    int getTop() {
+        return top;
+    }
+
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Measures repeatedly the memory consumed by a code block, like
+ * {@link Histogramer#getDiff(Supplier)}, to get statistics less affected by JIT
+ * compilation, class loading or the library own garbage.
+ *
+ * The code is executed some warmup iterations whose results are discarded, and
+ * then the measured iterations. Optionally, the same measurement is executed
+ * with an empty supplier, and its median per class is subtracted from each
+ * iteration as the calibration baseline.
+ */
+public class DiffRunner {
+
+    private static final Object EMPTY = new Object();
+    private static final Supplier<Object> EMPTY_SUPPLIER = () -> EMPTY;
+
+    private final Histogramer histogramer;
+    private int warmups = 2;
+    private int iterations = 5;
+    private boolean calibrate = true;
+
+    public DiffRunner() {
+        this(new Histogramer());
+    }
+
+    /**
+     * Creates a runner which captures histograms with the given Histogramer. Each
+     * histogram is a new capture, ignoring the minimum interval of the
+     * Histogramer and the captures in flight of other callers.
+     */
+    public DiffRunner(Histogramer histogramer) {
+        this.histogramer = histogramer;
+    }
+
+    /**
+     * Number of discarded iterations executed before measuring
+     */
+    public DiffRunner setWarmups(int warmups) {
+        if (warmups < 0) {
+            throw new IllegalArgumentException("Warmups can not be negative");
+        }
+        this.warmups = warmups;
+        return this;
+    }
+
+    /**
+     * Number of measured iterations
+     */
+    public DiffRunner setIterations(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be positive");
+        }
+        this.iterations = iterations;
+        return this;
+    }
+
+    /**
+     * Subtracts the baseline measured with an empty supplier. Enabled by default.
+     */
+    public DiffRunner setCalibrate(boolean calibrate) {
+        this.calibrate = calibrate;
+        return this;
+    }
+
+    /**
+     * Measures the memory consumed by the code, which must return a reference to
+     * a root instance which reference to all measurable instances. Code is
+     * executed warmups + iterations times.
+     */
+    public <T> DiffStatistics run(Supplier<T> code) {
+        MemoryHistogram baseline = new MemoryHistogram();
+        if (calibrate) {
+            baseline = medians(measure(EMPTY_SUPPLIER));
+        }
+        MemoryHistogram[] diffs = measure(code);
+        return new DiffStatistics(statistics(diffs, baseline), iterations, baseline);
+    }
+
+    private <T> MemoryHistogram[] measure(Supplier<T> code) {
+        for (int i = 0; i < warmups; i++) {
+            diff(code);
+        }
+        MemoryHistogram[] diffs = new MemoryHistogram[iterations];
+        for (int i = 0; i < iterations; i++) {
+            diffs[i] = diff(code);
+        }
+        return diffs;
+    }
+
+    private <T> MemoryHistogram diff(Supplier<T> code) {
+        MemoryHistogram reference = histogramer.captureNew();
+        T value = code.get();
+        MemoryHistogram current = histogramer.captureNew();
+        value.getClass();
+        return current.diff(reference);
+    }
+
+    /**
+     * Histogram with a row for each class which appears in any of the histograms
+     */
+    private static MemoryHistogram union(MemoryHistogram[] histograms) {
+        MemoryHistogram union = histograms[0].derived(histograms[0].size());
+        for (MemoryHistogram histogram : histograms) {
+            for (int row = 0; row < histogram.size(); row++) {
+                union.accumulate(union.idOf(histogram, row), 0, 0);
+            }
+        }
+        return union;
+    }
+
+    /**
+     * Per class median of the diffs, sorted by size
+     */
+    static MemoryHistogram medians(MemoryHistogram[] diffs) {
+        MemoryHistogram union = union(diffs);
+        MemoryHistogram medians = union.derived(union.size());
+        long[] instances = new long[diffs.length];
+        long[] sizes = new long[diffs.length];
+        for (int row = 0; row < union.size(); row++) {
+            column(diffs, union, row, instances, sizes, null);
+            // Same median of ClassStatistics, rounded to the units of the histogram
+            medians.put(union.classId(row), Math.round(ClassStatistics.median(instances)),
+                    Math.round(ClassStatistics.median(sizes)));
+        }
+        medians.sortBySize();
+        return medians;
+    }
+
+    private static List<ClassStatistics> statistics(MemoryHistogram[] diffs, MemoryHistogram baseline) {
+        MemoryHistogram union = union(diffs);
+        List<ClassStatistics> statistics = new ArrayList<>(union.size());
+        for (int row = 0; row < union.size(); row++) {
+            long[] instances = new long[diffs.length];
+            long[] sizes = new long[diffs.length];
+            column(diffs, union, row, instances, sizes, baseline);
+            statistics.add(new ClassStatistics(union.className(row), instances, sizes));
+        }
+        statistics.sort((a, b) -> Double.compare(b.getMedianSize(), a.getMedianSize()));
+        return statistics;
+    }
+
+    /**
+     * Fills the sorted values of the class of the union row in each histogram,
+     * minus the baseline
+     */
+    private static void column(MemoryHistogram[] diffs, MemoryHistogram union, int unionRow, long[] instances,
+            long[] sizes, MemoryHistogram baseline) {
+        int baseRow = baseline == null ? -1 : baseline.rowOf(union, unionRow);
+        long baseInstances = baseRow < 0 ? 0 : baseline.instances(baseRow);
+        long baseSize = baseRow < 0 ? 0 : baseline.size(baseRow);
+        for (int i = 0; i < diffs.length; i++) {
+            int row = diffs[i].rowOf(union, unionRow);
+            instances[i] = (row < 0 ? 0 : diffs[i].instances(row)) - baseInstances;
+            sizes[i] = (row < 0 ? 0 : diffs[i].size(row)) - baseSize;
+        }
+        Arrays.sort(instances);
+        Arrays.sort(sizes);
+    }
+
+}
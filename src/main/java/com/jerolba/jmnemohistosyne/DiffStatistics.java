@@ -0,0 +1,80 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.jerolba.jmnemohistosyne.MemoryHistogram.SimpleMap;
+
+/**
+ * Result of a repeated measurement: statistics of each class which changed in
+ * any iteration, sorted by median size
+ */
+public class DiffStatistics {
+
+    private final List<ClassStatistics> classes;
+    private final SimpleMap<String, ClassStatistics> byName;
+    private final int iterations;
+    private final MemoryHistogram baseline;
+
+    DiffStatistics(List<ClassStatistics> classes, int iterations, MemoryHistogram baseline) {
+        this.classes = Collections.unmodifiableList(classes);
+        this.byName = new SimpleMap<>(classes.size());
+        for (ClassStatistics statistics : classes) {
+            byName.put(statistics.getClassName(), statistics);
+        }
+        this.iterations = iterations;
+        this.baseline = baseline;
+    }
+
+    /**
+     * Returns the statistics of the class, or null if it never changed
+     */
+    public ClassStatistics get(String className) {
+        return byName.get(className);
+    }
+
+    public List<ClassStatistics> getClasses() {
+        return classes;
+    }
+
+    /**
+     * Number of measured iterations
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Median difference measured executing an empty supplier, which was
+     * subtracted from each iteration. Empty if calibration was disabled.
+     */
+    public MemoryHistogram getBaseline() {
+        return baseline;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("class,medianInstances,minInstances,maxInstances,stdDevInstances,"
+                + "medianSize,minSize,maxSize,stdDevSize\n");
+        for (ClassStatistics statistics : classes) {
+            sb.append(statistics).append('\n');
+        }
+        return sb.toString();
+    }
+
+}
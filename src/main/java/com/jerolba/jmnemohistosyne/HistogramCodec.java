@@ -0,0 +1,348 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary format of a MemoryHistogram. A histogram is encoded with a
+ * dictionary of class names followed by the instances and sizes columns, with
+ * each value encoded as a zigzag varint.
+ *
+ * A histogram can be delta encoded against a previous one: class names present
+ * in the base histogram are encoded as a reference to its row, and values are
+ * encoded as the difference with the base values, which for consecutive
+ * snapshots are usually small numbers.
+ *
+ * <pre>
+ * magic "JMHS" | version | flags (delta, all objects) | timestamp (8 bytes) | rows (varint)
+ * [delta only] base timestamp (8 bytes) | base rows (varint)
+ * names: rows x (varint length + UTF-8 bytes) or, in delta, varint base row + 1 or 0 + name
+ * instances: rows x zigzag varint
+ * sizes: rows x zigzag varint
+ * </pre>
+ */
+public final class HistogramCodec {
+
+    private static final int MAGIC = 0x4A4D4853;
+    private static final byte VERSION = 1;
+    private static final int FLAG_DELTA = 1;
+    private static final int FLAG_ALL_OBJECTS = 2;
+
+    private HistogramCodec() {
+    }
+
+    /**
+     * Writes the histogram to the stream. The stream is not closed.
+     */
+    public static void write(MemoryHistogram histogram, OutputStream os) throws IOException {
+        write(histogram, null, os);
+    }
+
+    /**
+     * Writes the histogram to the stream, delta encoded against the base
+     * histogram. Base can be null, in which case the histogram is fully encoded.
+     * The stream is not closed.
+     */
+    public static void write(MemoryHistogram histogram, MemoryHistogram base, OutputStream os) throws IOException {
+        Encoder encoder = new Encoder(os);
+        encoder.writeInt(MAGIC);
+        encoder.writeByte(VERSION);
+        int flags = base == null ? 0 : FLAG_DELTA;
+        if (histogram.getMode() == HistogramMode.ALL) {
+            flags |= FLAG_ALL_OBJECTS;
+        }
+        encoder.writeByte(flags);
+        encoder.writeLong(histogram.getTimestamp());
+        int rows = histogram.size();
+        encoder.writeVarint(rows);
+        if (base != null) {
+            encoder.writeLong(base.getTimestamp());
+            encoder.writeVarint(base.size());
+        }
+        int[] baseRows = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            int baseRow = base == null ? -1 : base.rowOf(histogram, row);
+            baseRows[row] = baseRow;
+            if (base != null) {
+                encoder.writeVarint(baseRow + 1);
+            }
+            if (baseRow < 0) {
+                encoder.writeString(histogram.className(row));
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            long baseValue = baseRows[row] < 0 ? 0 : base.instances(baseRows[row]);
+            encoder.writeZigzag(histogram.instances(row) - baseValue);
+        }
+        for (int row = 0; row < rows; row++) {
+            long baseValue = baseRows[row] < 0 ? 0 : base.size(baseRows[row]);
+            encoder.writeZigzag(histogram.size(row) - baseValue);
+        }
+        encoder.flush();
+    }
+
+    /**
+     * Writes the histogram to a file, replacing it if it exists
+     */
+    public static void write(MemoryHistogram histogram, Path path) throws IOException {
+        write(histogram, null, path);
+    }
+
+    /**
+     * Writes the histogram to a file delta encoded against the base histogram,
+     * replacing the file if it exists
+     */
+    public static void write(MemoryHistogram histogram, MemoryHistogram base, Path path) throws IOException {
+        try (OutputStream os = Files.newOutputStream(path)) {
+            write(histogram, base, os);
+        }
+    }
+
+    /**
+     * Reads a histogram from a file, memory mapping its content
+     */
+    public static MemoryHistogram read(Path path) throws IOException {
+        return read(path, null);
+    }
+
+    /**
+     * Reads a histogram from a file, memory mapping its content. If the histogram
+     * is delta encoded, the base histogram used to encode it must be provided.
+     */
+    public static MemoryHistogram read(Path path, MemoryHistogram base) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel.map(MapMode.READ_ONLY, 0, channel.size()), base);
+        }
+    }
+
+    /**
+     * Reads a histogram from the buffer, starting at its current position. If the
+     * histogram is delta encoded, the base histogram used to encode it must be
+     * provided.
+     */
+    public static MemoryHistogram read(ByteBuffer buffer, MemoryHistogram base) throws IOException {
+        if (buffer.remaining() < 6 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a histogram binary format");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported histogram format version " + version);
+        }
+        byte flags = buffer.get();
+        boolean delta = (flags & FLAG_DELTA) != 0;
+        long timestamp = buffer.getLong();
+        int rows = (int) readVarint(buffer);
+        if (delta) {
+            long baseTimestamp = buffer.getLong();
+            long baseRows = readVarint(buffer);
+            if (base == null || base.getTimestamp() != baseTimestamp || base.size() != baseRows) {
+                throw new IllegalArgumentException("Histogram is delta encoded against a different histogram");
+            }
+        } else {
+            base = null;
+        }
+        // Delta encoded histograms share the names of their base
+        ClassNameTable names = base == null ? new ClassNameTable(rows) : base.names();
+        int[] ids = new int[rows];
+        int[] baseRows = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            int baseRow = delta ? (int) readVarint(buffer) - 1 : -1;
+            baseRows[row] = baseRow;
+            ids[row] = baseRow < 0 ? names.intern(readString(buffer)) : base.classId(baseRow);
+        }
+        long[] instances = new long[rows];
+        for (int row = 0; row < rows; row++) {
+            instances[row] = readZigzag(buffer) + (baseRows[row] < 0 ? 0 : base.instances(baseRows[row]));
+        }
+        MemoryHistogram histogram = new MemoryHistogram(rows, names);
+        histogram.setTimestamp(timestamp);
+        histogram.setMode((flags & FLAG_ALL_OBJECTS) != 0 ? HistogramMode.ALL : HistogramMode.LIVE);
+        for (int row = 0; row < rows; row++) {
+            long size = readZigzag(buffer) + (baseRows[row] < 0 ? 0 : base.size(baseRows[row]));
+            histogram.put(ids[row], instances[row], size);
+        }
+        return histogram;
+    }
+
+    static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    static long readZigzag(ByteBuffer buffer) {
+        long value = readVarint(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static void writeZigzag(ByteBuffer buffer, long value) {
+        writeVarint(buffer, zigzag(value));
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Number of bytes of the value encoded as varint
+     */
+    static int varintSize(long value) {
+        return value == 0 ? 1 : (63 - Long.numberOfLeadingZeros(value)) / 7 + 1;
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = (int) readVarint(buffer);
+        if (buffer.hasArray()) {
+            int offset = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+            return new String(buffer.array(), offset, length, UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Buffered writer of primitive values, encoding class names to UTF-8 without
+     * intermediate byte arrays
+     */
+    static class Encoder {
+
+        private final OutputStream os;
+        private final byte[] buffer = new byte[8192];
+        private int position = 0;
+        private long flushed = 0;
+
+        Encoder(OutputStream os) {
+            this.os = os;
+        }
+
+        void writeByte(int value) throws IOException {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeInt(int value) throws IOException {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void writeZigzag(long value) throws IOException {
+            writeVarint(zigzag(value));
+        }
+
+        void writeString(String value) throws IOException {
+            int length = value.length();
+            int utf8Length = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    utf8Length++;
+                } else if (c < 0x800) {
+                    utf8Length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    utf8Length += 4;
+                    i++;
+                } else {
+                    utf8Length += 3;
+                }
+            }
+            writeVarint(utf8Length);
+            for (int i = 0; i < length; i++) {
+                int c = value.charAt(i);
+                if (c < 0x80) {
+                    writeByte(c);
+                } else if (c < 0x800) {
+                    writeByte(0xC0 | (c >> 6));
+                    writeByte(0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate((char) c) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint((char) c, value.charAt(++i));
+                    writeByte(0xF0 | (cp >> 18));
+                    writeByte(0x80 | ((cp >> 12) & 0x3F));
+                    writeByte(0x80 | ((cp >> 6) & 0x3F));
+                    writeByte(0x80 | (cp & 0x3F));
+                } else {
+                    writeByte(0xE0 | (c >> 12));
+                    writeByte(0x80 | ((c >> 6) & 0x3F));
+                    writeByte(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        /**
+         * Number of bytes written since the encoder was created
+         */
+        long written() {
+            return flushed + position;
+        }
+
+        void flush() throws IOException {
+            flushBuffer();
+            os.flush();
+        }
+
+        private void flushBuffer() throws IOException {
+            os.write(buffer, 0, position);
+            flushed += position;
+            position = 0;
+        }
+
+    }
+
+}
@@ -46,7 +46,7 @@ public class HistogramEntry implements Comparable<HistogramEntry> {
 
     @Override
     public int compareTo(HistogramEntry o) {
-        return (int) (o.size - this.size);
+        return Long.compare(o.size, this.size);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.jerolba.jmnemohistosyne.MemoryHistogram.SimpleMap;
+
+/**
+ * Set of criteria compiled to filter histograms in a single pass. A class
+ * matches the filter if it matches any of the criteria:
+ *
+ * <ul>
+ * <li>Class name including package: compiled to a hash set of names</li>
+ * <li>Class name with a final wildcard: compiled to a prefix trie</li>
+ * <li>Class object: added to the hash set of names</li>
+ * <li>Regular expression pattern: patterns with the same flags are combined in
+ * a single alternation</li>
+ * </ul>
+ *
+ * A compiled filter is immutable and can be reused and shared between threads
+ * to filter many histograms.
+ */
+public final class HistogramFilter {
+
+    private final SimpleMap<String, String> exactNames;
+    private final PrefixTrie prefixes;
+    private final Pattern[] patterns;
+
+    private HistogramFilter(SimpleMap<String, String> exactNames, PrefixTrie prefixes, Pattern[] patterns) {
+        this.exactNames = exactNames;
+        this.prefixes = prefixes;
+        this.patterns = patterns;
+    }
+
+    /**
+     * Compiles the criteria in a filter
+     *
+     * @param orCriterias String, Class or Pattern criteria
+     * @throws UnsupportedOperationException if any criteria has other type
+     */
+    public static HistogramFilter compile(Object... orCriterias) {
+        SimpleMap<String, String> exactNames = new SimpleMap<>(orCriterias.length);
+        PrefixTrie prefixes = new PrefixTrie();
+        List<Pattern> patterns = new ArrayList<>();
+        for (Object criteria : orCriterias) {
+            if (criteria instanceof Class<?>) {
+                String name = ((Class<?>) criteria).getName();
+                exactNames.put(name, name);
+            } else if (criteria instanceof Pattern) {
+                patterns.add((Pattern) criteria);
+            } else if (criteria instanceof String) {
+                String str = (String) criteria;
+                if (str.endsWith("*")) {
+                    prefixes.add(str.substring(0, str.length() - 1));
+                } else {
+                    exactNames.put(str, str);
+                }
+            } else {
+                throw new UnsupportedOperationException(criteria.getClass().getName() + " type not supported");
+            }
+        }
+        return new HistogramFilter(exactNames, prefixes, combine(patterns));
+    }
+
+    /**
+     * Checks if the class name matches any criteria
+     */
+    public boolean matches(String className) {
+        return matches(className, matchers());
+    }
+
+    /**
+     * Creates a new histogram with the entries of the histogram which match any
+     * criteria, mantaining their order
+     */
+    public MemoryHistogram apply(MemoryHistogram histogram) {
+        if (prefixes.isEmpty() && patterns.length == 0) {
+            return applyExactNames(histogram);
+        }
+        Matcher[] matchers = matchers();
+        MemoryHistogram res = histogram.derived(0);
+        for (int row = 0; row < histogram.size(); row++) {
+            if (matches(histogram.className(row), matchers)) {
+                res.copyRow(histogram, row);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * With only exact names, looks up each name instead of scanning the histogram
+     */
+    private MemoryHistogram applyExactNames(MemoryHistogram histogram) {
+        int[] rows = new int[exactNames.size()];
+        int count = 0;
+        for (String name : exactNames) {
+            int id = histogram.names().find(name);
+            int row = id < 0 ? -1 : histogram.rowOf(id);
+            if (row >= 0) {
+                rows[count++] = row;
+            }
+        }
+        Arrays.sort(rows, 0, count);
+        MemoryHistogram res = histogram.derived(count);
+        for (int i = 0; i < count; i++) {
+            res.copyRow(histogram, rows[i]);
+        }
+        return res;
+    }
+
+    private boolean matches(String className, Matcher[] matchers) {
+        if (exactNames.containsKey(className) || prefixes.matches(className)) {
+            return true;
+        }
+        for (Matcher matcher : matchers) {
+            if (matcher.reset(className).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Matcher[] matchers() {
+        Matcher[] matchers = new Matcher[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            matchers[i] = patterns[i].matcher("");
+        }
+        return matchers;
+    }
+
+    /**
+     * Combines patterns with the same flags in a single alternation pattern.
+     * Patterns which can not be combined, like the ones with back references, are
+     * kept apart.
+     */
+    private static Pattern[] combine(List<Pattern> patterns) {
+        List<Pattern> combined = new ArrayList<>();
+        boolean[] used = new boolean[patterns.size()];
+        for (int i = 0; i < patterns.size(); i++) {
+            if (used[i]) {
+                continue;
+            }
+            Pattern first = patterns.get(i);
+            StringBuilder alternation = new StringBuilder("(?:").append(first.pattern()).append(")");
+            int count = 1;
+            for (int j = i + 1; j < patterns.size(); j++) {
+                Pattern other = patterns.get(j);
+                if (!used[j] && other.flags() == first.flags() && combinable(other) && combinable(first)) {
+                    alternation.append("|(?:").append(other.pattern()).append(")");
+                    used[j] = true;
+                    count++;
+                }
+            }
+            if (count == 1) {
+                combined.add(first);
+                continue;
+            }
+            try {
+                combined.add(Pattern.compile(alternation.toString(), first.flags()));
+            } catch (PatternSyntaxException e) {
+                combined.add(first);
+                for (int j = i + 1; j < patterns.size(); j++) {
+                    if (used[j] && patterns.get(j).flags() == first.flags()) {
+                        combined.add(patterns.get(j));
+                    }
+                }
+            }
+        }
+        return combined.toArray(new Pattern[combined.size()]);
+    }
+
+    private static boolean combinable(Pattern pattern) {
+        String regex = pattern.pattern();
+        for (int i = 0; i < regex.length() - 1; i++) {
+            if (regex.charAt(i) == '\\') {
+                char next = regex.charAt(i + 1);
+                if (Character.isDigit(next) || next == 'k' || next == 'Q' || next == 'E') {
+                    return false;
+                }
+                i++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Trie of class name prefixes, stored in primitive arrays. Each node has a
+     * linked list of edges labeled with a char.
+     */
+    private static class PrefixTrie {
+
+        private boolean[] terminal = new boolean[8];
+        private int[] firstEdge = new int[8];
+        private int nodes = 1;
+
+        private char[] edgeChar = new char[8];
+        private int[] edgeTarget = new int[8];
+        private int[] nextEdge = new int[8];
+        private int edges = 0;
+
+        PrefixTrie() {
+            Arrays.fill(firstEdge, -1);
+        }
+
+        boolean isEmpty() {
+            return nodes == 1 && !terminal[0];
+        }
+
+        void add(String prefix) {
+            int node = 0;
+            for (int i = 0; i < prefix.length() && !terminal[node]; i++) {
+                int next = child(node, prefix.charAt(i));
+                node = next < 0 ? addChild(node, prefix.charAt(i)) : next;
+            }
+            terminal[node] = true;
+        }
+
+        boolean matches(String className) {
+            int node = 0;
+            if (terminal[node]) {
+                return true;
+            }
+            for (int i = 0; i < className.length(); i++) {
+                node = child(node, className.charAt(i));
+                if (node < 0) {
+                    return false;
+                }
+                if (terminal[node]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int child(int node, char c) {
+            for (int edge = firstEdge[node]; edge >= 0; edge = nextEdge[edge]) {
+                if (edgeChar[edge] == c) {
+                    return edgeTarget[edge];
+                }
+            }
+            return -1;
+        }
+
+        private int addChild(int node, char c) {
+            if (nodes == terminal.length) {
+                terminal = Arrays.copyOf(terminal, nodes * 2);
+                firstEdge = Arrays.copyOf(firstEdge, nodes * 2);
+                Arrays.fill(firstEdge, nodes, nodes * 2, -1);
+            }
+            if (edges == edgeChar.length) {
+                edgeChar = Arrays.copyOf(edgeChar, edges * 2);
+                edgeTarget = Arrays.copyOf(edgeTarget, edges * 2);
+                nextEdge = Arrays.copyOf(nextEdge, edges * 2);
+            }
+            int target = nodes++;
+            edgeChar[edges] = c;
+            edgeTarget[edges] = target;
+            nextEdge[edges] = firstEdge[node];
+            firstEdge[node] = edges;
+            edges++;
+            return target;
+        }
+
+    }
+
+}
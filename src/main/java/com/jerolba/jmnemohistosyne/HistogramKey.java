@@ -0,0 +1,56 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+/**
+ * Value of a histogram entry used to rank classes
+ */
+public enum HistogramKey {
+
+    /**
+     * Total bytes of all instances
+     */
+    SIZE,
+
+    /**
+     * Number of instances
+     */
+    INSTANCES,
+
+    /**
+     * Average bytes per instance
+     */
+    AVERAGE_SIZE,
+
+    /**
+     * Absolute value of total bytes, to rank both growth and decrease in a diff
+     */
+    ABSOLUTE_SIZE;
+
+    long value(long instances, long size) {
+        switch (this) {
+        case SIZE:
+            return size;
+        case INSTANCES:
+            return instances;
+        case AVERAGE_SIZE:
+            return instances == 0 ? 0 : size / instances;
+        default:
+            return Math.abs(size);
+        }
+    }
+
+}
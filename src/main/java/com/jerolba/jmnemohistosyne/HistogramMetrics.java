@@ -0,0 +1,373 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Publishes the last histogram as metrics, in Prometheus text exposition format
+ * through an embedded HTTP endpoint, and as a JMX MXBean.
+ *
+ * To limit cardinality only the top N classes by size are exported, and the
+ * rest are aggregated in an entry named {@link MemoryHistogram#OTHER_CLASSES}.
+ * Classes can be also grouped by package, truncated to a number of segments.
+ *
+ * Metrics never trigger a new histogram: they are published with update, or
+ * registering the instance as listener of a HistogramSampler. The rendered
+ * payload is cached, and it's rendered at most once per histogram.
+ */
+public class HistogramMetrics implements HistogramListener, HistogramMetricsMXBean, AutoCloseable {
+
+    public static final String DEFAULT_OBJECT_NAME = "com.jerolba.jmnemohistosyne:type=HistogramMetrics";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String PREFIX = "jvm_class_histogram";
+    private static final int EXPECTED_PACKAGES = 256;
+
+    private final int maxSeries;
+    private final int packageDepth;
+
+    private String[] seriesNames;
+    private long[] seriesInstances;
+    private long[] seriesBytes;
+    private HistogramMode mode;
+    private long totalInstances;
+    private long totalBytes;
+    private long timestamp;
+    private byte[] payload;
+    private Map<String, Long> bytesMap;
+    private Map<String, Long> instancesMap;
+
+    private HttpServer server;
+    private ObjectName objectName;
+
+    /**
+     * Exports the top maxSeries classes by size
+     */
+    public HistogramMetrics(int maxSeries) {
+        this(maxSeries, 0);
+    }
+
+    /**
+     * Exports the top maxSeries groups by size. If packageDepth is greater than
+     * zero, classes are grouped by their package truncated to that number of
+     * segments.
+     */
+    public HistogramMetrics(int maxSeries, int packageDepth) {
+        if (maxSeries < 1) {
+            throw new IllegalArgumentException("Max series must be positive");
+        }
+        this.maxSeries = maxSeries;
+        this.packageDepth = packageDepth;
+    }
+
+    @Override
+    public void onHistogram(MemoryHistogram histogram) {
+        update(histogram);
+    }
+
+    /**
+     * Publishes the histogram, replacing the previous one
+     */
+    public void update(MemoryHistogram histogram) {
+        long total = histogram.getTotalMemory();
+        long instances = 0;
+        for (int row = 0; row < histogram.size(); row++) {
+            instances += histogram.instances(row);
+        }
+        PackageGroups packages = packageDepth > 0 ? groupByPackage(histogram) : null;
+        int groups = packages == null ? histogram.size() : packages.size();
+        RowHeap heap = new RowHeap(Math.min(maxSeries, groups));
+        for (int group = 0; group < groups; group++) {
+            heap.offer(packages == null ? histogram.size(group) : packages.bytes[group], group);
+        }
+        int[] top = heap.drainSorted();
+        int count = top.length < groups ? top.length + 1 : top.length;
+        String[] topNames = new String[count];
+        long[] topInstances = new long[count];
+        long[] topBytes = new long[count];
+        long otherInstances = instances;
+        long otherBytes = total;
+        for (int i = 0; i < top.length; i++) {
+            int group = top[i];
+            topNames[i] = packages == null ? histogram.className(group) : packages.names.name(group);
+            topInstances[i] = packages == null ? histogram.instances(group) : packages.instances[group];
+            topBytes[i] = packages == null ? histogram.size(group) : packages.bytes[group];
+            otherInstances -= topInstances[i];
+            otherBytes -= topBytes[i];
+        }
+        if (count > top.length) {
+            topNames[count - 1] = MemoryHistogram.OTHER_CLASSES;
+            topInstances[count - 1] = otherInstances;
+            topBytes[count - 1] = otherBytes;
+        }
+        synchronized (this) {
+            seriesNames = topNames;
+            seriesInstances = topInstances;
+            seriesBytes = topBytes;
+            mode = histogram.getMode();
+            totalInstances = instances;
+            totalBytes = total;
+            timestamp = histogram.getTimestamp();
+            payload = null;
+            bytesMap = null;
+            instancesMap = null;
+        }
+    }
+
+    /**
+     * Returns the last histogram in Prometheus text exposition format
+     */
+    public String getPrometheusText() {
+        return new String(payload(), UTF_8);
+    }
+
+    /**
+     * Starts an HTTP server which serves the metrics in Prometheus format in the
+     * /metrics path
+     */
+    public synchronized HttpServer startHttpServer(int port) throws IOException {
+        return startHttpServer(new InetSocketAddress(port));
+    }
+
+    /**
+     * Starts an HTTP server which serves the metrics in Prometheus format in the
+     * /metrics path
+     */
+    public synchronized HttpServer startHttpServer(InetSocketAddress address) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("HTTP server already started");
+        }
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Registers this instance in the platform MBean server with the default name
+     */
+    public ObjectName registerMBean() throws JMException {
+        return registerMBean(new ObjectName(DEFAULT_OBJECT_NAME));
+    }
+
+    /**
+     * Registers this instance in the platform MBean server
+     */
+    public synchronized ObjectName registerMBean(ObjectName name) throws JMException {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        mbeanServer.registerMBean(this, name);
+        objectName = name;
+        return name;
+    }
+
+    /**
+     * Stops the HTTP server and unregisters the MBean
+     */
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                throw new IllegalStateException(e);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public synchronized long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public synchronized long getTotalInstances() {
+        return totalInstances;
+    }
+
+    @Override
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getBytes() {
+        if (bytesMap == null) {
+            bytesMap = toMap(false);
+        }
+        return bytesMap;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getInstances() {
+        if (instancesMap == null) {
+            instancesMap = toMap(true);
+        }
+        return instancesMap;
+    }
+
+    private Map<String, Long> toMap(boolean instances) {
+        if (seriesNames == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (int row = 0; row < seriesNames.length; row++) {
+            map.put(seriesNames[row], instances ? seriesInstances[row] : seriesBytes[row]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = payload();
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private synchronized byte[] payload() {
+        if (payload == null) {
+            payload = render().getBytes(UTF_8);
+        }
+        return payload;
+    }
+
+    private String render() {
+        if (seriesNames == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        String label = packageDepth > 0 ? "package" : "class";
+        // Histograms of all objects also count unreachable instances not yet collected
+        String objects = mode == HistogramMode.ALL ? "live and unreachable instances" : "live instances";
+        sb.append("# HELP ").append(PREFIX).append("_bytes Bytes of ").append(objects).append(" by ").append(label)
+                .append('\n');
+        sb.append("# TYPE ").append(PREFIX).append("_bytes gauge\n");
+        for (int row = 0; row < seriesNames.length; row++) {
+            appendSample(sb, "_bytes", label, seriesNames[row], seriesBytes[row]);
+        }
+        sb.append("# HELP ").append(PREFIX).append("_instances Number of ").append(objects).append(" by ")
+                .append(label).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append("_instances gauge\n");
+        for (int row = 0; row < seriesNames.length; row++) {
+            appendSample(sb, "_instances", label, seriesNames[row], seriesInstances[row]);
+        }
+        sb.append("# HELP ").append(PREFIX).append("_total_bytes Bytes of all ").append(objects).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append("_total_bytes gauge\n");
+        sb.append(PREFIX).append("_total_bytes ").append(totalBytes).append('\n');
+        sb.append("# HELP ").append(PREFIX).append("_total_instances Number of all ").append(objects).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append("_total_instances gauge\n");
+        sb.append(PREFIX).append("_total_instances ").append(totalInstances).append('\n');
+        sb.append("# HELP ").append(PREFIX).append("_timestamp_seconds Capture time of the histogram\n");
+        sb.append("# TYPE ").append(PREFIX).append("_timestamp_seconds gauge\n");
+        sb.append(PREFIX).append("_timestamp_seconds ").append(timestamp / 1000.0).append('\n');
+        return sb.toString();
+    }
+
+    private static void appendSample(StringBuilder sb, String metric, String label, String value, long sample) {
+        sb.append(PREFIX).append(metric).append('{').append(label).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append("\"} ").append(sample).append('\n');
+    }
+
+    private PackageGroups groupByPackage(MemoryHistogram histogram) {
+        PackageGroups packages = new PackageGroups();
+        for (int row = 0; row < histogram.size(); row++) {
+            String className = histogram.className(row);
+            String pkg = PackageRollup.packageOf(className);
+            // Primitive arrays have no package, and are exported by themselves
+            pkg = pkg.isEmpty() ? className : truncate(pkg);
+            packages.add(pkg, histogram.instances(row), histogram.size(row));
+        }
+        return packages;
+    }
+
+    private String truncate(String packageName) {
+        int idx = -1;
+        for (int i = 0; i < packageDepth; i++) {
+            idx = packageName.indexOf('.', idx + 1);
+            if (idx < 0) {
+                return packageName;
+            }
+        }
+        return packageName.substring(0, idx);
+    }
+
+    /**
+     * Instances and bytes of each package, indexed by the id of the package name
+     * in a table local to the grouping
+     */
+    private static class PackageGroups {
+
+        private final ClassNameTable names = new ClassNameTable(EXPECTED_PACKAGES);
+        private long[] instances = new long[EXPECTED_PACKAGES];
+        private long[] bytes = new long[EXPECTED_PACKAGES];
+
+        void add(String packageName, long packageInstances, long packageBytes) {
+            int id = names.intern(packageName);
+            if (id == instances.length) {
+                instances = Arrays.copyOf(instances, id * 2);
+                bytes = Arrays.copyOf(bytes, id * 2);
+            }
+            instances[id] += packageInstances;
+            bytes[id] += packageBytes;
+        }
+
+        int size() {
+            return names.size();
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.Map;
+
+/**
+ * JMX view of the last histogram published by HistogramMetrics
+ */
+public interface HistogramMetricsMXBean {
+
+    /**
+     * Capture time of the histogram in milliseconds since epoch
+     */
+    long getTimestamp();
+
+    long getTotalInstances();
+
+    long getTotalBytes();
+
+    /**
+     * Bytes of each exported class or package, including the aggregated entry
+     * of the rest of classes
+     */
+    Map<String, Long> getBytes();
+
+    /**
+     * Instances of each exported class or package, including the aggregated
+     * entry of the rest of classes
+     */
+    Map<String, Long> getInstances();
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+/**
+ * Objects counted by a class histogram. Histograms captured in different modes
+ * are not comparable.
+ */
+public enum HistogramMode {
+
+    /**
+     * Only live objects. Forces a stop-the-world full GC before counting, which is
+     * precise but expensive.
+     */
+    LIVE(new String[0]),
+
+    /**
+     * All objects in the heap, including unreachable ones, without forcing a full
+     * GC. Cheap enough for latency sensitive processes, but counts the garbage not
+     * collected yet.
+     */
+    ALL(new String[] { "-all" });
+
+    private final String[] arguments;
+
+    HistogramMode(String[] arguments) {
+        this.arguments = arguments;
+    }
+
+    /**
+     * Arguments of the GC.class_histogram command
+     */
+    String[] arguments() {
+        return arguments.clone();
+    }
+
+}
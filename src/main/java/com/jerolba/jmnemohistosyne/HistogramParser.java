@@ -0,0 +1,152 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming parser of the GC.class_histogram output. Reads the output in chunks
+ * into a reusable byte buffer and decodes the instances and bytes columns
+ * directly to primitives. Class names are notified as ranges of the buffer, so
+ * no object is created per histogram line.
+ *
+ * Parser instances are not thread safe.
+ */
+class HistogramParser {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Receives each parsed histogram entry. The class name is encoded in UTF-8 in
+     * the buffer between from (inclusive) and to (exclusive) positions, and the
+     * buffer is only valid during the invocation.
+     */
+    interface EntryConsumer {
+
+        void accept(byte[] buffer, int from, int to, long instances, long bytes);
+
+    }
+
+    private byte[] buffer;
+    private boolean header;
+
+    HistogramParser() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    HistogramParser(int bufferSize) {
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Parses all the content of the stream, notifying each found entry to the
+     * consumer. Header lines and totals line are ignored.
+     *
+     * @return number of entries found
+     */
+    int parse(InputStream is, EntryConsumer consumer) throws IOException {
+        header = true;
+        int entries = 0;
+        int start = 0;
+        int scan = 0;
+        int end = 0;
+        while (true) {
+            while (scan < end && buffer[scan] != '\n') {
+                scan++;
+            }
+            if (scan < end) {
+                entries += parseLine(start, scan, consumer);
+                start = ++scan;
+                continue;
+            }
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                scan -= start;
+                start = 0;
+            }
+            if (end == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = is.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                if (end > start) {
+                    entries += parseLine(start, end, consumer);
+                }
+                return entries;
+            }
+            end += read;
+        }
+    }
+
+    /**
+     * Parses a line with format "   1:       2500      1200000  className", where
+     * class name can be followed by the module name. Returns 1 if the line is an
+     * entry, or 0 otherwise.
+     */
+    private int parseLine(int from, int to, EntryConsumer consumer) {
+        if (header) {
+            header = buffer[from] != '-';
+            return 0;
+        }
+        int pos = skipSpaces(from, to);
+        int digits = skipDigits(pos, to);
+        if (digits == pos || digits == to || buffer[digits] != ':') {
+            return 0;
+        }
+        pos = skipSpaces(digits + 1, to);
+        long instances = 0;
+        while (pos < to && isDigit(buffer[pos])) {
+            instances = instances * 10 + (buffer[pos++] - '0');
+        }
+        pos = skipSpaces(pos, to);
+        long bytes = 0;
+        while (pos < to && isDigit(buffer[pos])) {
+            bytes = bytes * 10 + (buffer[pos++] - '0');
+        }
+        pos = skipSpaces(pos, to);
+        int nameEnd = to;
+        while (nameEnd > pos && (buffer[nameEnd - 1] & 0xFF) <= ' ') {
+            nameEnd--;
+        }
+        if (nameEnd > pos) {
+            consumer.accept(buffer, pos, nameEnd, instances, bytes);
+            return 1;
+        }
+        return 0;
+    }
+
+    private int skipSpaces(int pos, int to) {
+        while (pos < to && buffer[pos] == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private int skipDigits(int pos, int to) {
+        while (pos < to && isDigit(buffer[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures memory histograms periodically in a background daemon thread. Keeps
+ * the last N histograms in a fixed capacity ring buffer, which can be also
+ * limited by the memory retained by the histograms. Retained histograms can be
+ * queried and compared without triggering a new full GC.
+ *
+ * Each capture can be delayed or advanced randomly up to the configured jitter,
+ * to avoid synchronizing the full GCs of different processes.
+ */
+public class HistogramSampler implements AutoCloseable {
+
+    private final Histogramer histogramer;
+    private final Duration interval;
+    private final List<HistogramListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Duration jitter = Duration.ZERO;
+    private volatile boolean paused = false;
+    private volatile RuntimeException lastError;
+
+    private final MemoryHistogram[] ring;
+    private final long[] footprints;
+    private int head = 0;
+    private int count = 0;
+    private long maxMemory = Long.MAX_VALUE;
+    private long retainedMemory = 0;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a sampler of the current process
+     *
+     * @param interval time between two captures
+     * @param capacity maximum number of retained histograms
+     */
+    public HistogramSampler(Duration interval, int capacity) {
+        this(new Histogramer(), interval, capacity);
+    }
+
+    /**
+     * Creates a sampler which captures histograms with the given Histogramer
+     *
+     * @param histogramer histogramer used to capture histograms
+     * @param interval time between two captures
+     * @param capacity maximum number of retained histograms
+     */
+    public HistogramSampler(Histogramer histogramer, Duration interval, int capacity) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.histogramer = histogramer;
+        this.interval = interval;
+        this.ring = new MemoryHistogram[capacity];
+        this.footprints = new long[capacity];
+    }
+
+    /**
+     * Maximum random variation applied to the interval between captures
+     */
+    public HistogramSampler setJitter(Duration jitter) {
+        this.jitter = jitter.abs();
+        return this;
+    }
+
+    /**
+     * Maximum memory retained by stored histograms. Oldest histograms are
+     * discarded to keep retained memory under the limit, but the latest histogram
+     * is always kept.
+     */
+    public synchronized HistogramSampler setMaxMemory(long maxMemoryBytes) {
+        this.maxMemory = maxMemoryBytes;
+        while (count > 1 && retainedMemory > maxMemory) {
+            removeOldest();
+        }
+        return this;
+    }
+
+    public HistogramSampler addListener(HistogramListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    public HistogramSampler removeListener(HistogramListener listener) {
+        listeners.remove(listener);
+        return this;
+    }
+
+    /**
+     * Starts capturing histograms in background
+     */
+    public synchronized HistogramSampler start() {
+        if (scheduler != null) {
+            throw new IllegalStateException("Sampler already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jmnemohistosyne-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduleNext();
+        return this;
+    }
+
+    /**
+     * Stops capturing histograms. Retained histograms are still available.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Skips captures until resume is invoked
+     */
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Error thrown by the last failed capture, or null if no capture failed
+     */
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Captures a histogram in the caller thread, storing it and notifying the
+     * listeners like a scheduled capture
+     */
+    public MemoryHistogram sample() {
+        MemoryHistogram histogram = histogramer.createHistogram();
+        store(histogram);
+        for (HistogramListener listener : listeners) {
+            try {
+                listener.onHistogram(histogram);
+            } catch (RuntimeException e) {
+                lastError = e;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Number of retained histograms
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns the last captured histogram, or null if no histogram was captured
+     */
+    public synchronized MemoryHistogram getLatest() {
+        return count == 0 ? null : get(count - 1);
+    }
+
+    /**
+     * Returns the retained histogram at the index position, being 0 the oldest one
+     */
+    public synchronized MemoryHistogram get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return ring[(head + index) % ring.length];
+    }
+
+    /**
+     * Returns all retained histograms, from the oldest to the newest
+     */
+    public synchronized List<MemoryHistogram> getHistograms() {
+        List<MemoryHistogram> all = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            all.add(get(i));
+        }
+        return all;
+    }
+
+    /**
+     * Calculates the difference between two retained histograms
+     *
+     * @param from index of the reference histogram
+     * @param to index of the compared histogram
+     */
+    public synchronized MemoryHistogram diff(int from, int to) {
+        return get(to).diff(get(from));
+    }
+
+    /**
+     * Memory retained by stored histograms
+     */
+    public synchronized long getRetainedMemory() {
+        return retainedMemory;
+    }
+
+    private synchronized void store(MemoryHistogram histogram) {
+        long footprint = histogram.getFootprint();
+        while (count > 0 && (count == ring.length || retainedMemory + footprint > maxMemory)) {
+            removeOldest();
+        }
+        int idx = (head + count) % ring.length;
+        ring[idx] = histogram;
+        footprints[idx] = footprint;
+        count++;
+        retainedMemory += footprint;
+    }
+
+    private void removeOldest() {
+        retainedMemory -= footprints[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        count--;
+    }
+
+    private void run() {
+        try {
+            if (!paused) {
+                sample();
+            }
+        } catch (RuntimeException e) {
+            lastError = e;
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        long delay = interval.toMillis();
+        long maxJitter = jitter.toMillis();
+        if (maxJitter > 0) {
+            delay += ThreadLocalRandom.current().nextLong(-maxJitter, maxJitter + 1);
+        }
+        scheduler.schedule(this::run, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+/**
+ * History of a class in a HistogramStore: the instances and bytes of the class
+ * in each stored snapshot, as parallel primitive arrays ordered by timestamp.
+ * Snapshots where the class was not present have zero instances and bytes.
+ */
+public final class HistogramSeries {
+
+    private final String className;
+    private final long[] timestamps;
+    private final long[] instances;
+    private final long[] bytes;
+
+    HistogramSeries(String className, long[] timestamps, long[] instances, long[] bytes) {
+        this.className = className;
+        this.timestamps = timestamps;
+        this.instances = instances;
+        this.bytes = bytes;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Number of snapshots in the series
+     */
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * Timestamps of the snapshots. The array is not copied.
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Number of instances of the class in each snapshot. The array is not copied.
+     */
+    public long[] getInstances() {
+        return instances;
+    }
+
+    /**
+     * Bytes used by the class in each snapshot. The array is not copied.
+     */
+    public long[] getBytes() {
+        return bytes;
+    }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Source of the raw class histogram of a JVM, with the same text format as the
+ * output of the GC.class_histogram diagnostic command.
+ */
+public interface HistogramSource {
+
+    /**
+     * Executes the class histogram command and returns a stream with its output,
+     * encoded in UTF-8. Caller is responsible of closing the stream.
+     */
+    InputStream execute() throws IOException;
+
+    /**
+     * Objects counted by the histograms of this source
+     */
+    default HistogramMode getMode() {
+        return HistogramMode.LIVE;
+    }
+
+    /**
+     * Whether the histograms are of the current process, whose classes of this
+     * library are excluded from them
+     */
+    default boolean isCurrentProcess() {
+        return true;
+    }
+
+}
@@ -0,0 +1,582 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import com.jerolba.jmnemohistosyne.HistogramCodec.Encoder;
+import com.jerolba.jmnemohistosyne.Segment.EntryVisitor;
+
+/**
+ * Append-only store of histograms on local disk, which keeps the history of
+ * each class so a single class can be queried over time without loading the
+ * stored histograms.
+ *
+ * Histograms are appended to a log file, keeping in memory only their
+ * timestamps, until a segment is completed. Completed segments are written as
+ * immutable files with a column per class, and are read memory mapped. Class
+ * names are stored once in a dictionary shared by all segments.
+ *
+ * Old segments can be downsampled to a lower resolution or deleted. The store
+ * is thread safe, and can be registered as a listener of a HistogramSampler.
+ * Mapped segment files are released by the garbage collector.
+ */
+public class HistogramStore implements HistogramListener, AutoCloseable {
+
+    private static final int DEFAULT_SEGMENT_SIZE = 1024;
+    private static final String NAMES_FILE = "names.dict";
+    private static final String LOG_FILE = "active.log";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String MANIFEST_FILE = "replace.manifest";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ClassNameTable names = new ClassNameTable(4096);
+    private final List<MappedSegment> segments = new ArrayList<>();
+    private ClassNameTable mappedTable;
+    private int[] storeIds = new int[256];
+    private long lastTimestamp = Long.MIN_VALUE;
+    private int nextSegment = 0;
+    private OutputStream namesStream;
+    private Encoder namesEncoder;
+    private ActiveSegment active;
+    private boolean closed = false;
+
+    /**
+     * Opens the store in the directory, creating it if it doesn't exist
+     */
+    public HistogramStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the store in the directory, creating it if it doesn't exist
+     *
+     * @param directory   directory of the store files
+     * @param segmentSize number of histograms of each segment
+     */
+    public HistogramStore(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        loadNames();
+        completeReplacement();
+        loadSegments();
+        active = new ActiveSegment(directory.resolve(LOG_FILE), lastTimestamp);
+        if (active.snapshots() > 0) {
+            lastTimestamp = active.lastTimestamp();
+        }
+        namesStream = Files.newOutputStream(directory.resolve(NAMES_FILE), CREATE, APPEND);
+        namesEncoder = new Encoder(namesStream);
+        if (active.snapshots() >= segmentSize) {
+            seal();
+        }
+    }
+
+    /**
+     * Appends the histogram to the store. Histograms must be appended in
+     * increasing timestamp order.
+     */
+    public void append(MemoryHistogram histogram) throws IOException {
+        append(histogram, histogram.getTimestamp());
+    }
+
+    /**
+     * Appends the histogram to the store with the given timestamp, like a
+     * difference of histograms or a histogram not captured by a Histogramer.
+     * Histograms must be appended in increasing timestamp order.
+     */
+    public synchronized void append(MemoryHistogram histogram, long timestamp) throws IOException {
+        checkOpen();
+        if (timestamp <= lastTimestamp) {
+            throw new IllegalArgumentException("Histograms must be appended in increasing timestamp order");
+        }
+        int rows = histogram.size();
+        ByteArrayOutputStream record = new ByteArrayOutputStream(16 + rows * 8);
+        Encoder encoder = new Encoder(record);
+        encoder.writeInt(0);
+        encoder.writeLong(timestamp);
+        encoder.writeVarint(rows);
+        for (int row = 0; row < rows; row++) {
+            encoder.writeVarint(storeId(histogram, row));
+            encoder.writeZigzag(histogram.instances(row));
+            encoder.writeZigzag(histogram.size(row));
+        }
+        encoder.flush();
+        // New class names must be persisted before the histogram referencing them
+        namesEncoder.flush();
+        byte[] bytes = record.toByteArray();
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 4);
+        active.append(timestamp, bytes);
+        lastTimestamp = timestamp;
+        if (active.snapshots() >= segmentSize) {
+            seal();
+        }
+    }
+
+    @Override
+    public void onHistogram(MemoryHistogram histogram) {
+        try {
+            append(histogram);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the history of the class in all stored snapshots
+     */
+    public HistogramSeries query(String className) {
+        return query(className, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the history of the class in the snapshots with a timestamp between
+     * from (inclusive) and to (exclusive)
+     */
+    public synchronized HistogramSeries query(String className, long from, long to) {
+        checkOpen();
+        List<Segment> all = new ArrayList<>(segments);
+        all.add(active);
+        int size = 0;
+        for (Segment segment : all) {
+            if (segment.snapshots() > 0) {
+                size += segment.lowerBound(to) - segment.lowerBound(from);
+            }
+        }
+        long[] timestamps = new long[size];
+        long[] instances = new long[size];
+        long[] bytes = new long[size];
+        int classId = names.find(className);
+        int position = 0;
+        for (Segment segment : all) {
+            if (segment.snapshots() == 0) {
+                continue;
+            }
+            int first = segment.lowerBound(from);
+            int last = segment.lowerBound(to);
+            for (int i = first; i < last; i++) {
+                timestamps[position + i - first] = segment.timestamp(i);
+            }
+            if (classId >= 0) {
+                int offset = position - first;
+                segment.visit(classId, first, last, (snapshot, classInstances, classBytes) -> {
+                    int samples = segment.samples(snapshot);
+                    instances[offset + snapshot] = average(classInstances, samples);
+                    bytes[offset + snapshot] = average(classBytes, samples);
+                });
+            }
+            position += last - first;
+        }
+        return new HistogramSeries(className, timestamps, instances, bytes);
+    }
+
+    /**
+     * Names of all classes present in some stored histogram
+     */
+    public synchronized List<String> getClassNames() {
+        int size = names.size();
+        List<String> classNames = new ArrayList<>(size);
+        for (int id = 0; id < size; id++) {
+            classNames.add(names.name(id));
+        }
+        return classNames;
+    }
+
+    /**
+     * Number of stored snapshots
+     */
+    public synchronized int size() {
+        int size = active.snapshots();
+        for (MappedSegment segment : segments) {
+            size += segment.snapshots();
+        }
+        return size;
+    }
+
+    /**
+     * Downsamples the completed segments whose snapshots are all older than the
+     * timestamp. The snapshots of each interval of the given resolution are
+     * replaced by a snapshot with the average instances and bytes of each class,
+     * weighted by the number of histograms of already downsampled snapshots,
+     * and the timestamp of the first snapshot of the interval. Segments already
+     * downsampled to the same or a lower resolution are not modified.
+     *
+     * Downsampled segments are written as temporary files, and a manifest with
+     * the segments to replace is written before replacing them, so a replacement
+     * interrupted by a crash is completed when the store is opened.
+     */
+    public synchronized void downsample(long before, Duration resolution) throws IOException {
+        checkOpen();
+        long step = resolution.toMillis();
+        if (step <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive");
+        }
+        // Consecutive segments are merged, without crossing a segment which is not downsampled
+        List<List<MappedSegment>> runs = new ArrayList<>();
+        List<MappedSegment> run = null;
+        for (MappedSegment segment : segments) {
+            if (segment.lastTimestamp() < before && segment.resolution() < step) {
+                if (run == null) {
+                    run = new ArrayList<>();
+                    runs.add(run);
+                }
+                run.add(segment);
+            } else {
+                run = null;
+            }
+        }
+        if (runs.isEmpty()) {
+            return;
+        }
+        List<Path> downsampled = new ArrayList<>();
+        for (List<MappedSegment> replaced : runs) {
+            downsampled.addAll(downsample(replaced, step));
+        }
+        List<String> manifest = new ArrayList<>();
+        for (Path path : downsampled) {
+            manifest.add("move " + path.getFileName());
+        }
+        for (List<MappedSegment> replaced : runs) {
+            for (MappedSegment segment : replaced) {
+                manifest.add("delete " + segment.path().getFileName());
+            }
+            segments.removeAll(replaced);
+        }
+        writeManifest(manifest);
+        completeReplacement();
+        for (Path path : downsampled) {
+            segments.add(MappedSegment.open(path));
+        }
+        segments.sort(Comparator.comparingLong(MappedSegment::firstTimestamp));
+    }
+
+    /**
+     * Deletes the completed segments whose snapshots are all older than the
+     * timestamp. Retention is applied to whole segments, so older snapshots
+     * sharing a segment with newer ones are kept.
+     */
+    public synchronized void deleteBefore(long before) throws IOException {
+        checkOpen();
+        Iterator<MappedSegment> it = segments.iterator();
+        while (it.hasNext()) {
+            MappedSegment segment = it.next();
+            if (segment.lastTimestamp() < before) {
+                Files.delete(segment.path());
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            namesStream.close();
+            active.close();
+        }
+    }
+
+    /**
+     * Writes the downsampled snapshots of consecutive segments to temporary
+     * files, returning the paths of the new segments
+     */
+    private List<Path> downsample(List<MappedSegment> run, long step) throws IOException {
+        Downsampler downsampler = new Downsampler(run, step);
+        List<Path> downsampled = new ArrayList<>();
+        for (int from = 0; from < downsampler.intervals(); from += segmentSize) {
+            Path path = nextSegmentPath();
+            Path tmp = path.resolveSibling(path.getFileName() + TMP_SUFFIX);
+            downsampler.write(tmp, from, Math.min(from + segmentSize, downsampler.intervals()));
+            downsampled.add(path);
+        }
+        return downsampled;
+    }
+
+    private void writeManifest(List<String> lines) throws IOException {
+        Path tmp = directory.resolve(MANIFEST_FILE + TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(String.join("\n", lines).getBytes(UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(MANIFEST_FILE), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Moves the downsampled segments of the manifest to their final path and
+     * deletes the segments they replace. Both operations can be repeated, so a
+     * replacement interrupted by a crash is completed by the next execution.
+     */
+    private void completeReplacement() throws IOException {
+        Files.deleteIfExists(directory.resolve(MANIFEST_FILE + TMP_SUFFIX));
+        Path manifest = directory.resolve(MANIFEST_FILE);
+        if (!Files.exists(manifest)) {
+            return;
+        }
+        for (String line : Files.readAllLines(manifest, UTF_8)) {
+            Path path = directory.resolve(line.substring(line.indexOf(' ') + 1));
+            if (line.startsWith("move ")) {
+                Path tmp = path.resolveSibling(path.getFileName() + TMP_SUFFIX);
+                if (Files.exists(tmp)) {
+                    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } else {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.delete(manifest);
+    }
+
+    /**
+     * Completes the active segment, writing it to a segment file
+     */
+    private void seal() throws IOException {
+        segments.add(MappedSegment.write(nextSegmentPath(), active, names.size()));
+        active.clear();
+    }
+
+    /**
+     * Id in the store dictionary of the class of the row. The translation of the
+     * histogram class ids is kept while histograms share their names table.
+     */
+    private int storeId(MemoryHistogram histogram, int row) throws IOException {
+        if (histogram.names() != mappedTable) {
+            mappedTable = histogram.names();
+            Arrays.fill(storeIds, 0);
+        }
+        int classId = histogram.classId(row);
+        if (classId >= storeIds.length) {
+            storeIds = Arrays.copyOf(storeIds, Math.max(classId + 1, storeIds.length * 2));
+        }
+        int id = storeIds[classId] - 1;
+        if (id < 0) {
+            String name = histogram.className(row);
+            id = names.find(name);
+            if (id < 0) {
+                id = names.intern(name);
+                namesEncoder.writeString(name);
+            }
+            storeIds[classId] = id + 1;
+        }
+        return id;
+    }
+
+    private Path nextSegmentPath() {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+    }
+
+    private void loadNames() throws IOException {
+        Path path = directory.resolve(NAMES_FILE);
+        if (!Files.exists(path)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        int valid = 0;
+        try {
+            while (buffer.hasRemaining()) {
+                names.intern(HistogramCodec.readString(buffer));
+                valid = buffer.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // Name partially written by an interrupted append
+            truncate(path, valid);
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    // Segment partially written by an interrupted seal or downsample
+                    Files.delete(path);
+                } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                    segments.add(MappedSegment.open(path));
+                    String number = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                    nextSegment = Math.max(nextSegment, Integer.parseInt(number) + 1);
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(MappedSegment::firstTimestamp));
+        if (!segments.isEmpty()) {
+            lastTimestamp = segments.get(segments.size() - 1).lastTimestamp();
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Histogram store is closed");
+        }
+    }
+
+    private static void truncate(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    private static long average(long sum, int samples) {
+        return samples == 1 ? sum : Math.round((double) sum / samples);
+    }
+
+    /**
+     * Groups the snapshots of consecutive segments in intervals of a resolution,
+     * and encodes the sum of the values of each class in each interval
+     */
+    private static class Downsampler implements EntryVisitor {
+
+        private final List<MappedSegment> run;
+        private final long step;
+        private final int[] bases;
+        private final int[] intervalOf;
+        private final int[] firstSnapshots;
+        private final long[] timestamps;
+        private final int[] samples;
+        private final long[] instances;
+        private final long[] bytes;
+        private final int[] touched;
+        private int count = 0;
+        private int touchedCount = 0;
+        private int base;
+
+        Downsampler(List<MappedSegment> run, long step) {
+            this.run = run;
+            this.step = step;
+            bases = new int[run.size() + 1];
+            for (int i = 0; i < run.size(); i++) {
+                bases[i + 1] = bases[i] + run.get(i).snapshots();
+            }
+            int total = bases[run.size()];
+            intervalOf = new int[total];
+            firstSnapshots = new int[total + 1];
+            timestamps = new long[total];
+            samples = new int[total];
+            instances = new long[total];
+            bytes = new long[total];
+            touched = new int[total];
+            long current = 0;
+            for (int i = 0; i < run.size(); i++) {
+                MappedSegment segment = run.get(i);
+                for (int snapshot = 0; snapshot < segment.snapshots(); snapshot++) {
+                    long interval = Math.floorDiv(segment.timestamp(snapshot), step);
+                    if (count == 0 || interval != current) {
+                        current = interval;
+                        firstSnapshots[count] = bases[i] + snapshot;
+                        timestamps[count++] = segment.timestamp(snapshot);
+                    }
+                    samples[count - 1] += segment.samples(snapshot);
+                    intervalOf[bases[i] + snapshot] = count - 1;
+                }
+            }
+            firstSnapshots[count] = total;
+        }
+
+        int intervals() {
+            return count;
+        }
+
+        /**
+         * Writes the intervals between from (inclusive) and to (exclusive) as a
+         * segment file
+         */
+        void write(Path path, int from, int to) throws IOException {
+            int snapshotFrom = firstSnapshots[from];
+            int snapshotTo = firstSnapshots[to];
+            BitSet classIds = new BitSet();
+            for (int i = 0; i < run.size(); i++) {
+                if (bases[i] < snapshotTo && bases[i + 1] > snapshotFrom) {
+                    for (int id : run.get(i).classIds()) {
+                        classIds.set(id);
+                    }
+                }
+            }
+            MappedSegment.write(path, step, Arrays.copyOfRange(timestamps, from, to),
+                    Arrays.copyOfRange(samples, from, to), classIds.stream().toArray(),
+                    (classId, encoder) -> encode(classId, from, snapshotFrom, snapshotTo, encoder));
+        }
+
+        private int encode(int classId, int from, int snapshotFrom, int snapshotTo, Encoder encoder)
+                throws IOException {
+            for (int i = 0; i < run.size(); i++) {
+                base = bases[i];
+                int first = Math.max(snapshotFrom - base, 0);
+                int last = Math.min(snapshotTo, bases[i + 1]) - base;
+                if (first < last) {
+                    run.get(i).visit(classId, first, last, this);
+                }
+            }
+            int snapshot = 0;
+            long lastInstances = 0;
+            long lastBytes = 0;
+            for (int i = 0; i < touchedCount; i++) {
+                int interval = touched[i];
+                encoder.writeVarint(interval - from - snapshot);
+                encoder.writeZigzag(instances[interval] - lastInstances);
+                encoder.writeZigzag(bytes[interval] - lastBytes);
+                snapshot = interval - from;
+                lastInstances = instances[interval];
+                lastBytes = bytes[interval];
+                instances[interval] = 0;
+                bytes[interval] = 0;
+            }
+            int entries = touchedCount;
+            touchedCount = 0;
+            return entries;
+        }
+
+        @Override
+        public void visit(int snapshot, long classInstances, long classBytes) {
+            int interval = intervalOf[base + snapshot];
+            if (touchedCount == 0 || touched[touchedCount - 1] != interval) {
+                touched[touchedCount++] = interval;
+            }
+            instances[interval] += classInstances;
+            bytes[interval] += classBytes;
+        }
+
+    }
+
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports histograms as text, streaming the entries to a Writer, OutputStream
+ * or WritableByteChannel. Entries are encoded into a reusable buffer, and
+ * numbers are formatted directly into it, so exporting a histogram doesn't
+ * depend on its number of classes and only uses a few kilobytes of heap.
+ *
+ * Supported formats are CSV, with the same columns as MemoryHistogram
+ * toString, and JSON Lines, with a JSON object per class. Byte outputs are
+ * encoded in UTF-8 and can be compressed with gzip.
+ *
+ * Instances are not thread safe.
+ */
+public class HistogramWriter {
+
+    /**
+     * Text format of the exported histogram
+     */
+    public enum Format {
+
+        /**
+         * Header line "class,instances,size" and a line per class. Class names
+         * containing commas or quotes are quoted.
+         */
+        CSV,
+
+        /**
+         * A line per class with a JSON object: {"class":"...","instances":1,"size":16}
+         */
+        JSON_LINES
+    }
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Format format;
+    private final boolean gzip;
+    private final char[] chars = new char[BUFFER_SIZE];
+    private final byte[] bytes = new byte[BUFFER_SIZE * 3];
+    private final char[] digits = new char[20];
+    private int position;
+    private Sink sink;
+
+    public HistogramWriter(Format format) {
+        this(format, false);
+    }
+
+    /**
+     * Creates a writer of the format, which compresses byte outputs with gzip if
+     * required
+     */
+    public HistogramWriter(Format format, boolean gzip) {
+        this.format = format;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Writes the histogram to the writer, which is flushed but not closed
+     *
+     * @throws UnsupportedOperationException if the output must be compressed
+     */
+    public void write(MemoryHistogram histogram, Writer writer) throws IOException {
+        if (gzip) {
+            throw new UnsupportedOperationException("A Writer can not be compressed, use an OutputStream");
+        }
+        write(histogram, (chunk, length) -> writer.write(chunk, 0, length));
+        writer.flush();
+    }
+
+    /**
+     * Writes the histogram to the stream, which is flushed but not closed
+     */
+    public void write(MemoryHistogram histogram, OutputStream os) throws IOException {
+        if (gzip) {
+            // Closing the gzip stream releases its native deflater
+            try (GZIPOutputStream gzipStream = new GZIPOutputStream(new NonClosingOutputStream(os), BUFFER_SIZE)) {
+                writeBytes(histogram, gzipStream);
+            }
+        } else {
+            writeBytes(histogram, os);
+        }
+        os.flush();
+    }
+
+    /**
+     * Writes the histogram to the channel, which is not closed
+     */
+    public void write(MemoryHistogram histogram, WritableByteChannel channel) throws IOException {
+        if (gzip) {
+            write(histogram, Channels.newOutputStream(channel));
+            return;
+        }
+        ByteBuffer out = ByteBuffer.wrap(bytes);
+        write(histogram, (chunk, length) -> {
+            out.clear().limit(encode(length));
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        });
+    }
+
+    private void writeBytes(MemoryHistogram histogram, OutputStream os) throws IOException {
+        write(histogram, (chunk, length) -> os.write(bytes, 0, encode(length)));
+    }
+
+    private void write(MemoryHistogram histogram, Sink output) throws IOException {
+        sink = output;
+        position = 0;
+        try {
+            if (format == Format.CSV) {
+                append("class,instances,size\n");
+            }
+            for (int row = 0; row < histogram.size(); row++) {
+                if (format == Format.CSV) {
+                    appendCsvName(histogram.className(row));
+                    append(',');
+                    append(histogram.instances(row));
+                    append(',');
+                    append(histogram.size(row));
+                } else {
+                    append("{\"class\":\"");
+                    appendJsonName(histogram.className(row));
+                    append("\",\"instances\":");
+                    append(histogram.instances(row));
+                    append(",\"size\":");
+                    append(histogram.size(row));
+                    append('}');
+                }
+                append('\n');
+            }
+            flushBuffer();
+        } finally {
+            sink = null;
+        }
+    }
+
+    private void appendCsvName(String name) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < name.length() && !quote; i++) {
+            char c = name.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            append(name);
+            return;
+        }
+        append('"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"') {
+                append('"');
+            }
+            append(c);
+        }
+        append('"');
+    }
+
+    private void appendJsonName(String name) throws IOException {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\') {
+                append('\\');
+                append(c);
+            } else if (c < ' ') {
+                append("\\u00");
+                append(HEX[c >> 4]);
+                append(HEX[c & 0xF]);
+            } else {
+                append(c);
+            }
+        }
+    }
+
+    private void append(String str) throws IOException {
+        for (int i = 0; i < str.length(); i++) {
+            append(str.charAt(i));
+        }
+    }
+
+    /**
+     * Formats the number without creating any String
+     */
+    private void append(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            append(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (count > 0) {
+            append(digits[--count]);
+        }
+    }
+
+    private void append(char c) throws IOException {
+        // Keeps surrogate pairs in the same chunk, to encode them together
+        if (position == chars.length || (position == chars.length - 1 && Character.isHighSurrogate(c))) {
+            flushBuffer();
+        }
+        chars[position++] = c;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            sink.write(chars, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Encodes the first length chars of the buffer in UTF-8, returning the number
+     * of bytes
+     */
+    private int encode(int length) {
+        int out = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                bytes[out++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[out++] = (byte) (0xC0 | (c >> 6));
+                bytes[out++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+                int codePoint = Character.toCodePoint(c, chars[++i]);
+                bytes[out++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[out++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[out++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[out++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[out++] = '?';
+            } else {
+                bytes[out++] = (byte) (0xE0 | (c >> 12));
+                bytes[out++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[out++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Receives each filled chunk of the chars buffer
+     */
+    private interface Sink {
+
+        void write(char[] buffer, int length) throws IOException;
+
+    }
+
+    /**
+     * Keeps open the caller stream when the gzip stream is finished
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+    }
+
+}
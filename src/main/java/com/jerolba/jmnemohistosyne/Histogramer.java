@@ -15,15 +15,21 @@
  */
 package com.jerolba.jmnemohistosyne;
 
-import static java.lang.Long.parseLong;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.lang.management.ManagementFactory;
-import java.util.List;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 import com.jerolba.jmnemohistosyne.MemoryHistogram.SimpleMap;
 
@@ -43,6 +49,56 @@ public class Histogramer {
         ALIASES.put("[Z", "boolean[]");
     }
 
+    private static final int DEFAULT_EXPECTED_CLASSES = 4096;
+    private static final int LEDGER_SAMPLES = 5;
+    private static final int STALE_NAMES_RATIO = 4;
+
+    private final HistogramSource source;
+    private final HistogramParser parser = new HistogramParser();
+    private volatile NameNormalization normalization = NameNormalization.none();
+    private int expectedClasses = DEFAULT_EXPECTED_CLASSES;
+    private ClassNameTable names = new ClassNameTable(DEFAULT_EXPECTED_CLASSES);
+    private ClassNameCache nameCache;
+    private NameNormalization cachedNormalization;
+
+    private final Object flightLock = new Object();
+    private Flight inFlight;
+    private MemoryHistogram last;
+    private long lastNanos;
+    private volatile long minIntervalNanos = 0;
+
+    /**
+     * Creates a Histogramer of the current process. Uses the in-process
+     * DiagnosticCommand MBean if the JVM exposes it, and falls back to the jcmd
+     * command otherwise.
+     */
+    public Histogramer() {
+        this(HistogramMode.LIVE);
+    }
+
+    /**
+     * Creates a Histogramer of the current process which counts the objects of
+     * the given mode. With {@link HistogramMode#ALL} histograms are captured
+     * without forcing a full GC.
+     */
+    public Histogramer(HistogramMode mode) {
+        this(defaultSource(mode));
+    }
+
+    /**
+     * Creates a Histogramer which reads class histograms from the given source
+     */
+    public Histogramer(HistogramSource source) {
+        this.source = source;
+    }
+
+    private static HistogramSource defaultSource(HistogramMode mode) {
+        if (DiagnosticCommandHistogramSource.isAvailable()) {
+            return new DiagnosticCommandHistogramSource(mode);
+        }
+        return new JcmdHistogramSource(JcmdHistogramSource.currentPid(), mode);
+    }
+
     /**
      * Calculates the memory consumed by runnable code as difference of obects that
      * exists before and after code execution. To avoid GC over measured objects
@@ -59,81 +115,402 @@ public class Histogramer {
     }
 
     /**
-     * Creates a memory histogram of the current process
+     * Calculates the memory consumed by runnable code like getDiff, removing the
+     * memory used by the library itself between both histograms.
+     *
+     * Before measuring, a priming histogram loads the library classes and fills
+     * its name tables and buffers, and the histograms are preallocated, so they
+     * don't appear as growth. The remaining footprint of the capture mechanism
+     * is measured as the median of the differences of several consecutive
+     * histograms without code between them, and subtracted only from the
+     * classes present in the result.
+     *
+     * The result is not exact: the JVM reports the unused space of thread
+     * allocation buffers as int[] fillers, and int[] and the total memory can
+     * differ by up to the free space of the buffers of the running threads.
      */
-    public MemoryHistogram createHistogram() {
-        List<String> commandOutput = runJcmd();
-        MemoryHistogram histogram = new MemoryHistogram();
-        int cont = 0;
-        while (!commandOutput.get(cont).startsWith("--")) {
-            cont++;
-        }
-        int[] columns = locatecolumns(commandOutput.get(cont + 1));
-        commandOutput.stream().skip(cont + 1).forEach(str -> {
-            String instances = str.substring(columns[0], columns[1]).trim();
-            String bytes = str.substring(columns[2], columns[3]).trim();
-            String className = str.substring(columns[3]).trim();
-            if (!isThisLibraryCode(className) && !isTotalsLine(className)) {
-                histogram.add(new HistogramEntry(translateName(className), parseLong(instances), parseLong(bytes)));
+    public static <T> MemoryHistogram getSelfAccountedDiff(Supplier<T> code) {
+        Histogramer histogramer = new Histogramer();
+        HistogramSource source = histogramer.source;
+        int expected = histogramer.createHistogram().size() * 2;
+        MemoryHistogram[] ledgerCaptures = new MemoryHistogram[LEDGER_SAMPLES + 1];
+        for (int i = 0; i < ledgerCaptures.length; i++) {
+            ledgerCaptures[i] = histogramer.emptyHistogram(expected);
+        }
+        MemoryHistogram reference = histogramer.emptyHistogram(expected);
+        MemoryHistogram current = histogramer.emptyHistogram(expected);
+        for (MemoryHistogram ledgerCapture : ledgerCaptures) {
+            histogramer.captureInto(source, ledgerCapture);
+        }
+        histogramer.captureInto(source, reference);
+        T value = code.get();
+        histogramer.captureInto(source, current);
+        value.getClass();
+        // Ledger is calculated after measuring, to not allocate or load classes before the reference histogram
+        MemoryHistogram[] ledgerDiffs = new MemoryHistogram[LEDGER_SAMPLES];
+        for (int i = 0; i < LEDGER_SAMPLES; i++) {
+            ledgerDiffs[i] = ledgerCaptures[i + 1].diff(ledgerCaptures[i]);
+        }
+        return subtractPresent(current.diff(reference), DiffRunner.medians(ledgerDiffs));
+    }
+
+    /**
+     * Subtracts the ledger values of the classes present in the measured diff.
+     * Classes not changed by the measured code are not added as negative rows.
+     */
+    private static MemoryHistogram subtractPresent(MemoryHistogram measured, MemoryHistogram ledger) {
+        MemoryHistogram res = measured.derived(measured.size());
+        for (int row = 0; row < measured.size(); row++) {
+            int id = measured.classId(row);
+            int ledgerRow = ledger.rowOf(measured, row);
+            long instances = measured.instances(row);
+            long size = measured.size(row);
+            if (ledgerRow >= 0) {
+                instances -= ledger.instances(ledgerRow);
+                size -= ledger.size(ledgerRow);
+            }
+            if (size != 0) {
+                res.put(id, instances, size);
+            }
+        }
+        res.sortBySize();
+        return res;
+    }
+
+    /**
+     * Asynchronous version of getDiff, executed in a dedicated pool of daemon
+     * threads. Cancelling the future kills the capture process.
+     */
+    public static <T> CompletableFuture<MemoryHistogram> getDiffAsync(Supplier<T> code) {
+        return getDiffAsync(code, AsyncExecutor.INSTANCE);
+    }
+
+    /**
+     * Asynchronous version of getDiff. Both histograms and the code are executed
+     * in the executor. Cancelling the future kills the capture process.
+     */
+    public static <T> CompletableFuture<MemoryHistogram> getDiffAsync(Supplier<T> code, Executor executor) {
+        Histogramer histogramer = new Histogramer();
+        CompletableFuture<MemoryHistogram> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<MemoryHistogram>> capture = new AtomicReference<>();
+        result.whenComplete((histogram, e) -> {
+            CompletableFuture<MemoryHistogram> current = capture.get();
+            if (result.isCancelled() && current != null) {
+                current.cancel(true);
             }
         });
-        return histogram;
+        nextCapture(histogramer, executor, capture, result).whenComplete((reference, e1) -> {
+            if (e1 != null) {
+                result.completeExceptionally(e1);
+                return;
+            }
+            T value;
+            try {
+                value = code.get();
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            nextCapture(histogramer, executor, capture, result).whenComplete((current, e2) -> {
+                try {
+                    value.getClass();
+                    if (e2 != null) {
+                        result.completeExceptionally(e2);
+                    } else {
+                        result.complete(current.diff(reference));
+                    }
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        });
+        return result;
     }
 
-    private boolean isThisLibraryCode(String className) {
-        return className.startsWith(PACKAGE_NAME);
+    private static CompletableFuture<MemoryHistogram> nextCapture(Histogramer histogramer, Executor executor,
+            AtomicReference<CompletableFuture<MemoryHistogram>> capture, CompletableFuture<?> result) {
+        CompletableFuture<MemoryHistogram> next = histogramer.createHistogramAsync(executor);
+        capture.set(next);
+        if (result.isCancelled()) {
+            next.cancel(true);
+        }
+        return next;
     }
 
-    private boolean isTotalsLine(String className) {
-        return className.length() == 0;
+    /**
+     * Measures both the memory retained by the code, like getDiff, and the bytes
+     * allocated by the calling thread during its execution
+     */
+    public static <T> MemoryMeasurement measure(Supplier<T> code) {
+        return measure(code, new AllocationMeter());
     }
 
     /**
-     * Given the output from jcmd command, locate the character position of each
-     * data column
+     * Measures both the memory retained by the code, like getDiff, and the bytes
+     * allocated during its execution by the threads of the meter
      */
-    private int[] locatecolumns(String line) {
-        int idxDots = line.indexOf(":");
-        int idxInst = endChar(line, idxDots + 1);
-        int idxBytes = endChar(line, idxInst + 1);
-        int[] res = new int[5];
-        res[0] = idxDots + 1;
-        res[1] = idxInst;
-        res[2] = idxInst + 1;
-        res[3] = idxBytes;
-        res[4] = idxBytes + 1;
-        return res;
+    public static <T> MemoryMeasurement measure(Supplier<T> code, AllocationMeter meter) {
+        Histogramer histogramer = new Histogramer();
+        Object[] value = new Object[1];
+        MemoryHistogram reference = histogramer.createHistogram();
+        long allocated = meter.measure(() -> value[0] = code.get());
+        MemoryHistogram current = histogramer.createHistogram();
+        value[0].getClass();
+        return new MemoryMeasurement(current.diff(reference), allocated);
     }
 
     /**
-     * Locate the next end char of jcmd header line
+     * Minimum time between two captures. A histogram requested before the
+     * interval elapses returns the last captured one instead of triggering a new
+     * full GC. Zero by default.
      */
-    private int endChar(String line, int begin) {
-        int it = begin;
-        while (line.charAt(it) == ' ') {
-            it++;
+    public Histogramer setMinInterval(Duration minInterval) {
+        if (minInterval.isNegative()) {
+            throw new IllegalArgumentException("Minimum interval can not be negative");
         }
-        while (line.charAt(it) != ' ') {
-            it++;
+        synchronized (flightLock) {
+            this.minIntervalNanos = minInterval.toNanos();
+            if (minIntervalNanos == 0) {
+                last = null;
+            }
         }
-        return it;
+        return this;
     }
 
     /**
-     * Executes the jcmd command with GC.class_histogram parameter. It's expected to
-     * be in path.
+     * Normalization applied to class names, to collapse synthetic classes. Classes
+     * with the same normalized name are aggregated. No name is normalized by
+     * default.
+     */
+    public Histogramer setNormalization(NameNormalization normalization) {
+        this.normalization = normalization;
+        return this;
+    }
+
+    /**
+     * Creates a memory histogram of the current process.
+     *
+     * Only one capture is executed at a time: callers arriving while a capture is
+     * in flight wait for it and share its result, instead of forcing another full
+     * GC. Each caller receives its own copy of the shared histogram.
      */
-    private List<String> runJcmd() {
+    public MemoryHistogram createHistogram() {
+        return createHistogram(null);
+    }
+
+    /**
+     * Creates a memory histogram of the current process in a dedicated pool of
+     * daemon threads. Cancelling the future kills the capture process.
+     */
+    public CompletableFuture<MemoryHistogram> createHistogramAsync() {
+        return createHistogramAsync(AsyncExecutor.INSTANCE);
+    }
+
+    /**
+     * Creates a memory histogram of the current process in the executor.
+     * Cancelling the future kills the capture process, unless other requests are
+     * still sharing the capture.
+     */
+    public CompletableFuture<MemoryHistogram> createHistogramAsync(Executor executor) {
+        Request request = new Request();
+        CompletableFuture<MemoryHistogram> future = new CompletableFuture<>();
+        future.whenComplete((histogram, e) -> {
+            if (future.isCancelled()) {
+                cancel(request);
+            }
+        });
         try {
-            String name = ManagementFactory.getRuntimeMXBean().getName();
-            String PID = name.substring(0, name.indexOf("@"));
-            Process p = Runtime.getRuntime().exec("jcmd " + PID + " GC.class_histogram");
-            try (BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
-                return input.lines().collect(Collectors.toList());
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    future.complete(createHistogram(request));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Creates the histogram for a request, which is null if it can not be
+     * cancelled
+     */
+    private MemoryHistogram createHistogram(Request request) {
+        Flight flight;
+        boolean capturing;
+        synchronized (flightLock) {
+            if (request != null && request.cancelled) {
+                throw new CancellationException();
+            }
+            if (last != null && System.nanoTime() - lastNanos < minIntervalNanos) {
+                return last.copy();
+            }
+            flight = inFlight;
+            capturing = flight == null;
+            if (capturing) {
+                flight = new Flight(new CancellableSource(source));
+                inFlight = flight;
+            } else {
+                flight.requests++;
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            if (request != null) {
+                request.flight = flight;
+            }
+        }
+        if (!capturing) {
+            return join(flight.result).copy();
         }
+        // The captured histogram is kept unmodified for the callers sharing it. A copy is negligible next to the
+        // full GC of the capture.
+        return captureInFlight(flight).copy();
+    }
+
+    private MemoryHistogram captureInFlight(Flight flight) {
+        long start = System.nanoTime();
+        MemoryHistogram histogram;
+        try {
+            histogram = capture(flight.source);
+        } catch (Throwable e) {
+            // Errors like an OutOfMemoryError while parsing must also release the waiting requests
+            completeFlight(flight, null, start);
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        completeFlight(flight, histogram, start);
+        flight.result.complete(histogram);
+        return histogram;
+    }
+
+    private void completeFlight(Flight flight, MemoryHistogram histogram, long start) {
+        synchronized (flightLock) {
+            if (inFlight == flight) {
+                inFlight = null;
+            }
+            if (histogram != null && minIntervalNanos > 0) {
+                last = histogram;
+                lastNanos = start;
+            }
+        }
+    }
+
+    /**
+     * Kills the capture of the request only if all the requests sharing it have
+     * been cancelled
+     */
+    private void cancel(Request request) {
+        synchronized (flightLock) {
+            request.cancelled = true;
+            Flight flight = request.flight;
+            if (flight != null && flight == inFlight && ++flight.cancelled == flight.requests) {
+                // New requests must not join the killed capture
+                inFlight = null;
+                flight.source.cancel();
+            }
+        }
+    }
+
+    private static MemoryHistogram join(CompletableFuture<MemoryHistogram> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Captures a new histogram, without sharing a capture in flight or reusing the
+     * last one, for measurements which need the state after a given point
+     */
+    MemoryHistogram captureNew() {
+        return capture(source);
+    }
+
+    private MemoryHistogram capture(HistogramSource captureSource) {
+        synchronized (parser) {
+            if (names.size() > STALE_NAMES_RATIO * expectedClasses) {
+                // Most names are of classes not found anymore, like generated ones. Previous histograms keep the
+                // old table, which is released with them.
+                names = new ClassNameTable(expectedClasses);
+                nameCache = null;
+            }
+            return captureInto(captureSource, new MemoryHistogram(expectedClasses, names));
+        }
+    }
+
+    /**
+     * Creates an empty histogram which can be captured with captureInto
+     */
+    private MemoryHistogram emptyHistogram(int expectedSize) {
+        synchronized (parser) {
+            return new MemoryHistogram(expectedSize, names);
+        }
+    }
+
+    /**
+     * Captures a histogram into an existing one, replacing its content. The
+     * histogram must use the names table of this Histogramer.
+     */
+    private MemoryHistogram captureInto(HistogramSource captureSource, MemoryHistogram histogram) {
+        synchronized (parser) {
+            histogram.clear();
+            histogram.setTimestamp(System.currentTimeMillis());
+            histogram.setMode(captureSource.getMode());
+            NameNormalization rules = normalization;
+            boolean excludeLibrary = captureSource.isCurrentProcess();
+            if (nameCache == null || cachedNormalization != rules) {
+                nameCache = new ClassNameCache(expectedClasses);
+                cachedNormalization = rules;
+            }
+            ClassNameCache cache = nameCache;
+            int entries;
+            try (InputStream is = captureSource.execute()) {
+                entries = parser.parse(is, (buffer, from, to, instances, bytes) -> {
+                    int id = cache.get(buffer, from, to);
+                    if (id == ClassNameCache.ABSENT) {
+                        id = classId(new String(buffer, from, to - from, UTF_8), rules, excludeLibrary);
+                        cache.put(buffer, from, to, id);
+                    }
+                    // Normalized classes, or classes loaded by several class loaders, share the name
+                    if (id != ClassNameCache.IGNORED) {
+                        histogram.accumulate(id, instances, bytes);
+                    }
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            // A live JVM always has classes, an empty output is a failure of the source
+            if (entries == 0) {
+                throw new IllegalStateException("Class histogram output has no entries");
+            }
+            expectedClasses = Math.max(expectedClasses, histogram.size());
+            return histogram;
+        }
+    }
+
+    /**
+     * Translates and normalizes the raw class name to the id of the resulting
+     * name, or IGNORED if it's a class of this library and it must be excluded
+     */
+    private int classId(String className, NameNormalization rules, boolean excludeLibrary) {
+        if (excludeLibrary && isThisLibraryCode(className)) {
+            return ClassNameCache.IGNORED;
+        }
+        return names.intern(rules.normalize(translateName(className)), moduleOf(className));
+    }
+
+    private boolean isThisLibraryCode(String className) {
+        return className.startsWith(PACKAGE_NAME);
     }
 
     /**
@@ -144,7 +521,7 @@ public class Histogramer {
      * @return
      */
     private String translateName(String className) {
-        String name = removeJavaBase(className);
+        String name = removeModule(className);
         if (ALIASES.containsKey(name)) {
             return ALIASES.get(name);
         }
@@ -162,16 +539,35 @@ public class Histogramer {
     }
 
     private final static String JAVA_LANG = "java.lang.";
-    private final static String JAVA_BASE = " (java.base@";
+    private final static String MODULE_START = " (";
 
-    private String removeJavaBase(String className) {
-        int idx = className.indexOf(JAVA_BASE);
-        if (idx > 0) {
+    /**
+     * Removes the module suffix added since JDK 9, like " (java.base@11.0.2)"
+     */
+    private String removeModule(String className) {
+        int idx = className.indexOf(MODULE_START);
+        if (idx > 0 && className.endsWith(")")) {
             return className.substring(0, idx);
         }
         return className;
     }
 
+    /**
+     * Returns the name of the module from the class name suffix, or null if the
+     * class belongs to the unnamed module or the JVM doesn't support modules
+     */
+    private String moduleOf(String className) {
+        int idx = className.indexOf(MODULE_START);
+        if (idx < 0 || !className.endsWith(")")) {
+            return null;
+        }
+        int end = className.indexOf('@', idx);
+        if (end < 0) {
+            end = className.length() - 1;
+        }
+        return className.substring(idx + MODULE_START.length(), end);
+    }
+
     private String reduceName(String className) {
         if (className.startsWith(JAVA_LANG)) {
             String reduced = className.substring(JAVA_LANG.length());
@@ -182,4 +578,45 @@ public class Histogramer {
         return className;
     }
 
+    /**
+     * Lazily created pool of daemon threads used by asynchronous captures
+     */
+    private static class AsyncExecutor {
+
+        private static final AtomicInteger COUNTER = new AtomicInteger();
+
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "jmnemohistosyne-async-" + COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    }
+
+    /**
+     * Capture shared by the concurrent requests
+     */
+    private static class Flight {
+
+        private final CompletableFuture<MemoryHistogram> result = new CompletableFuture<>();
+        private final CancellableSource source;
+        private int requests = 1;
+        private int cancelled = 0;
+
+        Flight(CancellableSource source) {
+            this.source = source;
+        }
+
+    }
+
+    /**
+     * Asynchronous request of a histogram, and the capture it's sharing
+     */
+    private static class Request {
+
+        private Flight flight;
+        private boolean cancelled = false;
+
+    }
+
 }
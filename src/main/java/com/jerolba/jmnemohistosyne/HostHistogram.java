@@ -0,0 +1,90 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Histograms collected from several processes of the same host, with the
+ * aggregate of all of them
+ */
+public final class HostHistogram {
+
+    private final Map<String, MemoryHistogram> histograms;
+    private final Map<String, Exception> errors;
+    private final MemoryHistogram aggregate;
+
+    HostHistogram(Map<String, MemoryHistogram> histograms, Map<String, Exception> errors) {
+        this.histograms = Collections.unmodifiableMap(histograms);
+        this.errors = Collections.unmodifiableMap(errors);
+        this.aggregate = merge(histograms);
+    }
+
+    /**
+     * Histogram of each process by PID, for the processes collected successfully
+     */
+    public Map<String, MemoryHistogram> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * Returns the histogram of the process, or null if it was not collected
+     */
+    public MemoryHistogram get(String pid) {
+        return histograms.get(pid);
+    }
+
+    /**
+     * Sum of instances and bytes of each class in all collected processes
+     */
+    public MemoryHistogram getAggregate() {
+        return aggregate;
+    }
+
+    /**
+     * Error of each process which could not be collected by PID. Processes which
+     * exceeded the timeout have a TimeoutException.
+     */
+    public Map<String, Exception> getErrors() {
+        return errors;
+    }
+
+    private static MemoryHistogram merge(Map<String, MemoryHistogram> histograms) {
+        int expected = 0;
+        long timestamp = 0;
+        HistogramMode mode = HistogramMode.LIVE;
+        for (MemoryHistogram histogram : histograms.values()) {
+            expected = Math.max(expected, histogram.size());
+            timestamp = Math.max(timestamp, histogram.getTimestamp());
+            // Any process counting unreachable objects makes the aggregate count them
+            if (histogram.getMode() == HistogramMode.ALL) {
+                mode = HistogramMode.ALL;
+            }
+        }
+        MemoryHistogram aggregate = new MemoryHistogram(expected);
+        aggregate.setTimestamp(timestamp);
+        aggregate.setMode(mode);
+        for (MemoryHistogram histogram : histograms.values()) {
+            for (int row = 0; row < histogram.size(); row++) {
+                aggregate.accumulate(aggregate.idOf(histogram, row), histogram.instances(row), histogram.size(row));
+            }
+        }
+        aggregate.sortBySize();
+        return aggregate;
+    }
+
+}
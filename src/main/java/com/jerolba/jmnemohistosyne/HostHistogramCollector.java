@@ -0,0 +1,177 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Collects the memory histograms of several JVMs running in the same host.
+ *
+ * Histograms are captured in parallel in a bounded pool of daemon threads. Each
+ * capture has a timeout, counted from the moment it starts, after which its
+ * jcmd process is killed and the process is reported as failed.
+ */
+public class HostHistogramCollector implements AutoCloseable {
+
+    private final Function<String, HistogramSource> sources;
+    private final Duration timeout;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * Creates a collector which captures histograms executing jcmd
+     *
+     * @param parallelism maximum number of concurrent captures
+     * @param timeout maximum duration of each capture
+     */
+    public HostHistogramCollector(int parallelism, Duration timeout) {
+        this(JcmdHistogramSource::new, parallelism, timeout);
+    }
+
+    /**
+     * Creates a collector which captures histograms from the source created for
+     * each PID
+     *
+     * @param sources creates the histogram source of a PID
+     * @param parallelism maximum number of concurrent captures
+     * @param timeout maximum duration of each capture
+     */
+    public HostHistogramCollector(Function<String, HistogramSource> sources, int parallelism, Duration timeout) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        this.sources = sources;
+        this.timeout = timeout;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "jmnemohistosyne-collector-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jmnemohistosyne-collector-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Collects the histograms of all JVMs discovered in the host
+     */
+    public HostHistogram collect() {
+        return collect(discoverPids());
+    }
+
+    /**
+     * Collects the histograms of the given processes
+     */
+    public HostHistogram collect(Collection<String> pids) {
+        Map<String, Future<MemoryHistogram>> futures = new LinkedHashMap<>();
+        for (String pid : pids) {
+            if (!futures.containsKey(pid)) {
+                CancellableSource target = new CancellableSource(sources.apply(pid));
+                futures.put(pid, executor.submit(() -> capture(target)));
+            }
+        }
+        Map<String, MemoryHistogram> histograms = new LinkedHashMap<>();
+        Map<String, Exception> errors = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<MemoryHistogram>> entry : futures.entrySet()) {
+            try {
+                histograms.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                errors.put(entry.getKey(), cause instanceof Exception ? (Exception) cause : e);
+            } catch (InterruptedException e) {
+                futures.values().forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        return new HostHistogram(histograms, errors);
+    }
+
+    /**
+     * Returns the PIDs of the JVMs running in the host, as listed by jcmd
+     */
+    public static List<String> discoverPids() {
+        List<String> pids = new ArrayList<>();
+        try {
+            Process p = Runtime.getRuntime().exec("jcmd -l");
+            p.getOutputStream().close();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int idx = line.indexOf(' ');
+                    String pid = idx < 0 ? line.trim() : line.substring(0, idx);
+                    // jcmd also lists itself
+                    if (!pid.isEmpty() && pid.chars().allMatch(Character::isDigit) && !line.contains("JCmd")) {
+                        pids.add(pid);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return pids;
+    }
+
+    /**
+     * Stops the collector threads
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private MemoryHistogram capture(CancellableSource target) throws TimeoutException {
+        ScheduledFuture<?> killer = timer.schedule(target::cancel, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            return new Histogramer(target).createHistogram();
+        } catch (RuntimeException e) {
+            if (target.isCancelled()) {
+                throw new TimeoutException("Histogram not collected in " + timeout);
+            }
+            throw e;
+        } finally {
+            killer.cancel(false);
+        }
+    }
+
+}
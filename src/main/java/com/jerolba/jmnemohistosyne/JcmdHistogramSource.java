@@ -0,0 +1,135 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Executes the jcmd command with GC.class_histogram parameter. It's expected to
+ * be in path, so it's only available when a JDK is installed.
+ */
+public class JcmdHistogramSource implements HistogramSource {
+
+    private final String pid;
+    private final HistogramMode mode;
+
+    /**
+     * Creates a source targeting the current process
+     */
+    public JcmdHistogramSource() {
+        this(currentPid());
+    }
+
+    /**
+     * Creates a source targeting the process with the given PID
+     */
+    public JcmdHistogramSource(String pid) {
+        this(pid, HistogramMode.LIVE);
+    }
+
+    /**
+     * Creates a source targeting the process with the given PID, which counts the
+     * objects of the given mode
+     */
+    public JcmdHistogramSource(String pid, HistogramMode mode) {
+        this.pid = pid;
+        this.mode = mode;
+    }
+
+    @Override
+    public InputStream execute() throws IOException {
+        StringBuilder command = new StringBuilder("jcmd ").append(pid).append(" GC.class_histogram");
+        for (String argument : mode.arguments()) {
+            command.append(' ').append(argument);
+        }
+        Process p = Runtime.getRuntime().exec(command.toString());
+        p.getOutputStream().close();
+        return new ProcessInputStream(p);
+    }
+
+    @Override
+    public HistogramMode getMode() {
+        return mode;
+    }
+
+    @Override
+    public boolean isCurrentProcess() {
+        return pid.equals(currentPid());
+    }
+
+    static String currentPid() {
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        return name.substring(0, name.indexOf("@"));
+    }
+
+    /**
+     * Process standard output which destroys the process if it's closed before
+     * reaching the end of the output, and fails at the end of the output if the
+     * process exits with an error
+     */
+    private static class ProcessInputStream extends FilterInputStream {
+
+        private final Process process;
+
+        ProcessInputStream(Process process) {
+            super(process.getInputStream());
+            this.process = process;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return checkEnd(super.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return checkEnd(super.read(b, off, len));
+        }
+
+        private int checkEnd(int read) throws IOException {
+            if (read < 0) {
+                int exitValue;
+                try {
+                    exitValue = process.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for jcmd");
+                }
+                if (exitValue != 0) {
+                    throw new IOException("jcmd exited with code " + exitValue);
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (process.isAlive()) {
+                    process.destroy();
+                }
+            }
+        }
+
+    }
+
+}
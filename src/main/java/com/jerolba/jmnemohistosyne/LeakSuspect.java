@@ -0,0 +1,89 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+/**
+ * Class whose memory usage grows along a series of histograms, with the fitted
+ * growth rate and the confidence of the trend.
+ */
+public class LeakSuspect {
+
+    private final String className;
+    private final long instances;
+    private final long size;
+    private final double instancesSlope;
+    private final double sizeSlope;
+    private final double confidence;
+
+    LeakSuspect(String className, long instances, long size, double instancesSlope, double sizeSlope,
+            double confidence) {
+        this.className = className;
+        this.instances = instances;
+        this.size = size;
+        this.instancesSlope = instancesSlope;
+        this.sizeSlope = sizeSlope;
+        this.confidence = confidence;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Number of instances in the last histogram
+     */
+    public long getInstances() {
+        return instances;
+    }
+
+    /**
+     * Size in bytes in the last histogram
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Growth of instances per second, or per histogram if histograms don't have
+     * timestamp
+     */
+    public double getInstancesSlope() {
+        return instancesSlope;
+    }
+
+    /**
+     * Growth of bytes per second, or per histogram if histograms don't have
+     * timestamp
+     */
+    public double getSizeSlope() {
+        return sizeSlope;
+    }
+
+    /**
+     * Value between 0 and 1 combining the linear fit of the growth and how
+     * monotonically instances and bytes grew
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    @Override
+    public String toString() {
+        return className + "," + instances + "," + size + "," + instancesSlope + "," + sizeSlope + ","
+                + confidence;
+    }
+
+}
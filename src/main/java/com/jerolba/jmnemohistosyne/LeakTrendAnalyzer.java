@@ -0,0 +1,219 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Detects slow memory leaks analyzing the trend of a series of histograms. For
+ * each class fits a linear regression of its instances and bytes over time, and
+ * tracks how many times they grew or decreased between consecutive histograms.
+ *
+ * Statistics are updated incrementally with Welford's algorithm: adding a
+ * histogram costs O(classes), independently of the number of histograms
+ * already analyzed. Statistics are stored in primitive arrays indexed by the
+ * class id in a ClassNameTable of the analyzer. Classes not present in a
+ * histogram are considered to have zero instances.
+ *
+ * Histograms should be added in capture order. Instances are not thread safe,
+ * but can be registered as listener of a HistogramSampler.
+ */
+public class LeakTrendAnalyzer implements HistogramListener {
+
+    private static final int MIN_HISTOGRAMS = 3;
+
+    private static final int EXPECTED_CLASSES = 4096;
+
+    private final ClassNameTable names = new ClassNameTable(EXPECTED_CLASSES);
+    private ClassNameTable mappedTable;
+    private int[] mappedIds = new int[0];
+    private final Trend instances = new Trend();
+    private final Trend sizes = new Trend();
+    private int tracked = 0;
+
+    private int count = 0;
+    private long origin;
+    private double meanX;
+    private double m2X;
+
+    @Override
+    public void onHistogram(MemoryHistogram histogram) {
+        add(histogram);
+    }
+
+    /**
+     * Adds the histogram to the series, updating the statistics of all classes
+     */
+    public void add(MemoryHistogram histogram) {
+        if (count == 0) {
+            origin = histogram.getTimestamp();
+        }
+        double x = origin == 0 ? count : (histogram.getTimestamp() - origin) / 1000.0;
+        count++;
+        double dx = x - meanX;
+        meanX += dx / count;
+        m2X += dx * (x - meanX);
+
+        int[] rows = rowsById(histogram);
+        int known = names.size();
+        if (known > tracked) {
+            instances.grow(known);
+            sizes.grow(known);
+            tracked = known;
+        }
+        for (int id = 0; id < tracked; id++) {
+            int row = rows[id];
+            instances.update(id, row < 0 ? 0 : histogram.instances(row), count, dx);
+            sizes.update(id, row < 0 ? 0 : histogram.size(row), count, dx);
+        }
+    }
+
+    /**
+     * Returns the row of the histogram of each class id of the analyzer, or -1 if
+     * it's not present. The translation of the histogram class ids is kept while
+     * histograms share their names table, like the ones of the same Histogramer.
+     */
+    private int[] rowsById(MemoryHistogram histogram) {
+        if (histogram.names() != mappedTable) {
+            mappedTable = histogram.names();
+            mappedIds = new int[0];
+        }
+        int[] ids = new int[histogram.size()];
+        for (int row = 0; row < ids.length; row++) {
+            int classId = histogram.classId(row);
+            if (classId >= mappedIds.length) {
+                mappedIds = Arrays.copyOf(mappedIds, Math.max(classId + 1, mappedIds.length * 2));
+            }
+            if (mappedIds[classId] == 0) {
+                mappedIds[classId] = names.intern(histogram.className(row)) + 1;
+            }
+            ids[row] = mappedIds[classId] - 1;
+        }
+        int[] rows = new int[names.size()];
+        Arrays.fill(rows, -1);
+        for (int row = 0; row < ids.length; row++) {
+            rows[ids[row]] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * Number of analyzed histograms
+     */
+    public int getHistogramsCount() {
+        return count;
+    }
+
+    /**
+     * Returns classes whose bytes grow along the analyzed histograms, sorted by
+     * confidence
+     */
+    public List<LeakSuspect> getSuspects() {
+        return getSuspects(0.0);
+    }
+
+    /**
+     * Returns classes whose bytes grow along the analyzed histograms with a
+     * confidence greater or equal than minConfidence, sorted by confidence
+     */
+    public List<LeakSuspect> getSuspects(double minConfidence) {
+        List<LeakSuspect> suspects = new ArrayList<>();
+        if (count < MIN_HISTOGRAMS || m2X == 0) {
+            return suspects;
+        }
+        for (int id = 0; id < tracked; id++) {
+            double sizeSlope = sizes.slope(id, m2X);
+            double instancesSlope = instances.slope(id, m2X);
+            if (sizeSlope <= 0 || instancesSlope < 0) {
+                continue;
+            }
+            double confidence = sizes.rSquared(id, m2X) * sizes.monotonicity(id, count)
+                    * instances.monotonicity(id, count);
+            if (confidence >= minConfidence) {
+                suspects.add(new LeakSuspect(names.name(id), instances.last[id], sizes.last[id], instancesSlope,
+                        sizeSlope, confidence));
+            }
+        }
+        suspects.sort(Comparator.comparingDouble(LeakSuspect::getConfidence)
+                .thenComparingDouble(LeakSuspect::getSizeSlope).reversed());
+        return suspects;
+    }
+
+    /**
+     * Running statistics of one variable for all classes
+     */
+    private static class Trend {
+
+        private double[] mean = new double[0];
+        private double[] m2 = new double[0];
+        private double[] coMoment = new double[0];
+        private long[] last = new long[0];
+        private int[] decreases = new int[0];
+
+        void grow(int capacity) {
+            mean = Arrays.copyOf(mean, capacity);
+            m2 = Arrays.copyOf(m2, capacity);
+            coMoment = Arrays.copyOf(coMoment, capacity);
+            last = Arrays.copyOf(last, capacity);
+            decreases = Arrays.copyOf(decreases, capacity);
+        }
+
+        /**
+         * Updates statistics with the value of the n-th point. dx is the difference
+         * between the new x value and the x mean before the update.
+         */
+        void update(int id, long value, int n, double dx) {
+            if (value == 0 && mean[id] == 0) {
+                return;
+            }
+            double dy = value - mean[id];
+            mean[id] += dy / n;
+            m2[id] += dy * (value - mean[id]);
+            coMoment[id] += dx * (value - mean[id]);
+            if (value < last[id]) {
+                decreases[id]++;
+            }
+            last[id] = value;
+        }
+
+        double slope(int id, double m2X) {
+            return coMoment[id] / m2X;
+        }
+
+        /**
+         * Coefficient of determination of the linear regression
+         */
+        double rSquared(int id, double m2X) {
+            if (m2[id] == 0) {
+                return 0;
+            }
+            return Math.min(1.0, coMoment[id] * coMoment[id] / (m2X * m2[id]));
+        }
+
+        /**
+         * Ratio of steps between consecutive histograms where the value didn't
+         * decrease
+         */
+        double monotonicity(int id, int n) {
+            return 1.0 - (double) decreases[id] / (n - 1);
+        }
+
+    }
+
+}
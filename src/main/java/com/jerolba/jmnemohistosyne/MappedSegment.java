@@ -0,0 +1,341 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import com.jerolba.jmnemohistosyne.HistogramCodec.Encoder;
+
+/**
+ * Immutable segment file of a HistogramStore, read memory mapped. After the
+ * timestamps of the snapshots, an index sorted by class id locates the column
+ * of each class, so the history of a class is read sequentially without
+ * decoding the rest of classes.
+ *
+ * Downsampled snapshots store the sum of the values of all the histograms of
+ * their interval, and the number of histograms summed.
+ *
+ * <pre>
+ * magic "JMTS" | version | resolution (8 bytes) | snapshots (4 bytes) | classes (4 bytes)
+ * timestamps: snapshots x 8 bytes
+ * samples: snapshots x 4 bytes
+ * index: classes x (class id (4 bytes) | entries (4 bytes) | offset (8 bytes))
+ * columns: entries x (varint snapshot delta | zigzag instances delta | zigzag bytes delta)
+ * </pre>
+ */
+final class MappedSegment implements Segment {
+
+    /**
+     * Encodes the column of a class when a segment is written
+     */
+    @FunctionalInterface
+    interface ColumnEncoder {
+
+        /**
+         * Encodes the entries of the class column, returning the number of entries
+         */
+        int encode(int classId, Encoder encoder) throws IOException;
+
+    }
+
+    private static final int MAGIC = 0x4A4D5453;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 4 + 4;
+    private static final int INDEX_ENTRY_SIZE = 4 + 4 + 8;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final long resolution;
+    private final long[] timestamps;
+    private final int[] samples;
+    private final int classes;
+    private final int indexPosition;
+
+    private MappedSegment(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a histogram store segment: " + path);
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported segment format version " + version);
+        }
+        this.resolution = buffer.getLong();
+        this.timestamps = new long[buffer.getInt()];
+        this.classes = buffer.getInt();
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = buffer.getLong();
+        }
+        this.samples = new int[timestamps.length];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = buffer.getInt();
+        }
+        this.indexPosition = buffer.position();
+    }
+
+    static MappedSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            return new MappedSegment(path, channel.map(MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes a segment file encoding the columns of the classes in order. The
+     * file is not opened.
+     *
+     * @param resolution interval of the downsampled snapshots in milliseconds
+     */
+    static void write(Path path, long resolution, long[] timestamps, int[] samples, int[] classIds,
+            ColumnEncoder columns) throws IOException {
+        int columnsPosition = HEADER_SIZE + timestamps.length * 12 + classIds.length * INDEX_ENTRY_SIZE;
+        ByteBuffer head = head(columnsPosition, resolution, timestamps.length, classIds.length);
+        for (long timestamp : timestamps) {
+            head.putLong(timestamp);
+        }
+        for (int sample : samples) {
+            head.putInt(sample);
+        }
+        try (FileChannel channel = FileChannel.open(path, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            channel.position(columnsPosition);
+            Encoder encoder = new Encoder(Channels.newOutputStream(channel));
+            for (int id : classIds) {
+                long offset = columnsPosition + encoder.written();
+                int entries = columns.encode(id, encoder);
+                head.putInt(id).putInt(entries).putLong(offset);
+            }
+            encoder.flush();
+            head.flip();
+            long position = 0;
+            while (head.hasRemaining()) {
+                position += channel.write(head, position);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Writes the segment from the log of an active segment, transposing its rows
+     * into class columns. Sizes of the columns are computed in a first pass over
+     * the log, and a second pass writes each row at the end of its column in the
+     * mapped file, so only the state of each class column is kept in memory.
+     *
+     * @param classes number of classes of the store dictionary
+     */
+    static MappedSegment write(Path path, ActiveSegment log, int classes) throws IOException {
+        int snapshots = log.snapshots();
+        int[] entries = new int[classes];
+        long[] positions = new long[classes];
+        Deltas deltas = new Deltas(classes);
+        log.visitRows(0, snapshots, (snapshot, classId, instances, bytes) -> {
+            entries[classId]++;
+            positions[classId] += deltas.size(classId, snapshot, instances, bytes);
+        });
+        int columns = 0;
+        for (int id = 0; id < classes; id++) {
+            if (entries[id] > 0) {
+                columns++;
+            }
+        }
+        long position = HEADER_SIZE + snapshots * 12L + columns * (long) INDEX_ENTRY_SIZE;
+        ByteBuffer head = head((int) position, 0, snapshots, columns);
+        for (int i = 0; i < snapshots; i++) {
+            head.putLong(log.timestamp(i));
+        }
+        for (int i = 0; i < snapshots; i++) {
+            head.putInt(1);
+        }
+        for (int id = 0; id < classes; id++) {
+            if (entries[id] > 0) {
+                long size = positions[id];
+                positions[id] = position;
+                head.putInt(id).putInt(entries[id]).putLong(position);
+                position += size;
+            }
+        }
+        if (position > Integer.MAX_VALUE) {
+            throw new IOException("Segment exceeds the maximum size of a mapped file, reduce the segment size");
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, position);
+            head.flip();
+            buffer.put(head);
+            deltas.reset();
+            log.visitRows(0, snapshots, (snapshot, classId, instances, bytes) -> {
+                buffer.position((int) positions[classId]);
+                deltas.encode(buffer, classId, snapshot, instances, bytes);
+                positions[classId] = buffer.position();
+            });
+            buffer.force();
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        return open(path);
+    }
+
+    private static ByteBuffer head(int size, long resolution, int snapshots, int classes) {
+        ByteBuffer head = ByteBuffer.allocate(size);
+        head.putInt(MAGIC).put(VERSION).putLong(resolution).putInt(snapshots).putInt(classes);
+        return head;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Interval of the downsampled snapshots in milliseconds, or 0 if the
+     * snapshots were not downsampled
+     */
+    long resolution() {
+        return resolution;
+    }
+
+    @Override
+    public int snapshots() {
+        return timestamps.length;
+    }
+
+    @Override
+    public long timestamp(int snapshot) {
+        return timestamps[snapshot];
+    }
+
+    @Override
+    public int samples(int snapshot) {
+        return samples[snapshot];
+    }
+
+    /**
+     * Ids of the classes with a column in the segment, in ascending order
+     */
+    int[] classIds() {
+        int[] ids = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            ids[i] = buffer.getInt(indexPosition + i * INDEX_ENTRY_SIZE);
+        }
+        return ids;
+    }
+
+    @Override
+    public void visit(int classId, int from, int to, EntryVisitor visitor) {
+        int entry = findEntry(classId);
+        if (entry < 0) {
+            return;
+        }
+        int entries = buffer.getInt(entry + 4);
+        ByteBuffer column = buffer.duplicate();
+        column.position((int) buffer.getLong(entry + 8));
+        int snapshot = 0;
+        long instances = 0;
+        long bytes = 0;
+        for (int i = 0; i < entries; i++) {
+            snapshot += (int) HistogramCodec.readVarint(column);
+            instances += HistogramCodec.readZigzag(column);
+            bytes += HistogramCodec.readZigzag(column);
+            if (snapshot >= to) {
+                return;
+            }
+            if (snapshot >= from) {
+                visitor.visit(snapshot, instances, bytes);
+            }
+        }
+    }
+
+    /**
+     * Last entry of each class column, to encode the entries as differences
+     */
+    private static class Deltas {
+
+        private final int[] snapshots;
+        private final long[] instances;
+        private final long[] bytes;
+
+        Deltas(int classes) {
+            snapshots = new int[classes];
+            instances = new long[classes];
+            bytes = new long[classes];
+        }
+
+        /**
+         * Encoded size of the entry, which becomes the last entry of the column
+         */
+        int size(int classId, int snapshot, long classInstances, long classBytes) {
+            int size = HistogramCodec.varintSize(snapshot - snapshots[classId])
+                    + HistogramCodec.varintSize(HistogramCodec.zigzag(classInstances - instances[classId]))
+                    + HistogramCodec.varintSize(HistogramCodec.zigzag(classBytes - bytes[classId]));
+            set(classId, snapshot, classInstances, classBytes);
+            return size;
+        }
+
+        void encode(ByteBuffer buffer, int classId, int snapshot, long classInstances, long classBytes) {
+            HistogramCodec.writeVarint(buffer, snapshot - snapshots[classId]);
+            HistogramCodec.writeZigzag(buffer, classInstances - instances[classId]);
+            HistogramCodec.writeZigzag(buffer, classBytes - bytes[classId]);
+            set(classId, snapshot, classInstances, classBytes);
+        }
+
+        void reset() {
+            Arrays.fill(snapshots, 0);
+            Arrays.fill(instances, 0);
+            Arrays.fill(bytes, 0);
+        }
+
+        private void set(int classId, int snapshot, long classInstances, long classBytes) {
+            snapshots[classId] = snapshot;
+            instances[classId] = classInstances;
+            bytes[classId] = classBytes;
+        }
+
+    }
+
+    /**
+     * Binary search of the class in the index, returning the position of its
+     * index entry or -1 if the class has no column
+     */
+    private int findEntry(int classId) {
+        int low = 0;
+        int high = classes - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int position = indexPosition + mid * INDEX_ENTRY_SIZE;
+            int id = buffer.getInt(position);
+            if (id < classId) {
+                low = mid + 1;
+            } else if (id > classId) {
+                high = mid - 1;
+            } else {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+}
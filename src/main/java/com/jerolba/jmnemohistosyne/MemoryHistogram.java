@@ -15,130 +15,191 @@
  */
 package com.jerolba.jmnemohistosyne;
 
-import static java.util.stream.Collectors.joining;
-
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 /**
  * Contains a histogram from a set of classes. Mantains insertion order and can
- * be accessed by class name
+ * be accessed by class name.
+ *
+ * Data is stored in columns of primitive arrays: the class id in the
+ * ClassNameTable of the histogram, the number of instances and the size of each
+ * class. Rows are indexed by class id with an open addressing hash table.
+ * HistogramEntry objects are only created as views when the histogram is
+ * iterated or queried.
  *
+ * Histograms captured by the same Histogramer, and the histograms derived from
+ * them, share their ClassNameTable and are joined directly by class id. Other
+ * histograms are joined by class name.
  */
 public class MemoryHistogram implements Iterable<HistogramEntry> {
 
-    private final SimpleMap<String, HistogramEntry> map = new SimpleMap<>();
+    /**
+     * Name of the entry which aggregates the classes pruned from a histogram
+     */
+    public static final String OTHER_CLASSES = "<other>";
+
+    private static final int DEFAULT_SIZE = 16;
+
+    private final ClassNameTable names;
+    private int[] ids;
+    private long[] instances;
+    private long[] sizes;
+    private int[] slots;
+    private int size;
+    private long timestamp;
+    private HistogramMode mode = HistogramMode.LIVE;
 
     public MemoryHistogram() {
+        this(DEFAULT_SIZE);
     }
 
-    private MemoryHistogram(Collection<HistogramEntry> all) {
-        for (HistogramEntry entry : all) {
-            this.add(entry);
-        }
+    /**
+     * Creates a MemoryHistogram pre-sized to contain expectedSize classes
+     */
+    public MemoryHistogram(int expectedSize) {
+        this(expectedSize, new ClassNameTable(expectedSize));
+    }
+
+    /**
+     * Creates a MemoryHistogram whose class ids belong to the names table
+     */
+    MemoryHistogram(int expectedSize, ClassNameTable names) {
+        this.names = names;
+        int capacity = Math.max(expectedSize, 1);
+        ids = new int[capacity];
+        instances = new long[capacity];
+        sizes = new long[capacity];
+        slots = new int[slotsFor(capacity)];
     }
 
     public void add(HistogramEntry it) {
-        map.put(it.getClassName(), it);
+        add(it.getClassName(), it.getInstances(), it.getSize());
     }
 
-    public HistogramEntry get(String className) {
-        return map.get(className);
+    /**
+     * Adds the class to the histogram, replacing its values if the class was
+     * already present
+     */
+    public void add(String className, long instances, long size) {
+        put(names.intern(className), instances, size);
     }
 
-    public MemoryHistogram filter(Object... orCriterias) {
-        List<HistogramEntry> ac = new ArrayList<>();
-        for (Object criteria : orCriterias) {
-            for (HistogramEntry entry : findCriteria(criteria)) {
-                ac.add(entry);
-            }
+    public HistogramEntry get(String className) {
+        int id = names.find(className);
+        if (id < 0) {
+            return null;
         }
-        return sortedHistogram(ac);
+        int row = rowOf(id);
+        return row < 0 ? null : entry(row);
     }
 
-    private MemoryHistogram findCriteria(Object criteria) {
-        if (criteria instanceof Class<?>) {
-            return findClass(((Class<?>) criteria));
-        }
-        if (criteria instanceof Pattern) {
-            return findPattern((Pattern) criteria);
-        }
-        if (criteria instanceof String) {
-            return findString((String) criteria);
-        }
-        throw new UnsupportedOperationException(criteria.getClass().getName() + " type not supported");
+    /**
+     * Number of classes contained in the histogram
+     */
+    public int size() {
+        return size;
     }
 
-    private MemoryHistogram findClass(Class<?> criteria) {
-        String className = criteria.getName();
-        MemoryHistogram res = new MemoryHistogram();
-        HistogramEntry entry = get(className);
-        if (entry != null) {
-            res.add(entry);
-        }
-        return res;
+    /**
+     * Time in milliseconds since epoch when the histogram was captured, or 0 if it
+     * was not created by a Histogramer
+     */
+    public long getTimestamp() {
+        return timestamp;
     }
 
-    private MemoryHistogram findString(String str) {
-        MemoryHistogram res = new MemoryHistogram();
-        if (str.endsWith("*")) {
-            String match = str.substring(0, str.length() - 1);
-            for (HistogramEntry entry : map) {
-                if (entry.getClassName().startsWith(match)) {
-                    res.add(entry);
-                }
-            }
-            return res;
-        }
-        HistogramEntry entry = get(str);
-        if (entry != null) {
-            res.add(entry);
-        }
-        return res;
+    void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
     }
 
-    private MemoryHistogram findPattern(Pattern pattern) {
-        MemoryHistogram res = new MemoryHistogram();
-        for (HistogramEntry entry : map) {
-            Matcher matcher = pattern.matcher(entry.getClassName());
-            if (matcher.find()) {
-                res.add(entry);
-            }
-        }
-        return res;
+    /**
+     * Objects counted by the histogram. Histograms not created by a Histogramer
+     * count live objects.
+     */
+    public HistogramMode getMode() {
+        return mode;
+    }
+
+    void setMode(HistogramMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Approximated number of bytes retained in heap by this histogram, excluding
+     * the class names, which are shared with other histograms
+     */
+    public long getFootprint() {
+        return 64 + 16L * 4 + 4L * ids.length + 16L * instances.length + 4L * slots.length;
+    }
+
+    /**
+     * Creates a new MemoryHistogram with the entries matching any of the criteria,
+     * mantaining their order. Criteria can be a class name, a class name with a
+     * final wildcard, a Class or a Pattern.
+     *
+     * To filter many histograms with the same criteria, compile them once with
+     * {@link HistogramFilter#compile(Object...)}.
+     */
+    public MemoryHistogram filter(Object... orCriterias) {
+        return filter(HistogramFilter.compile(orCriterias));
+    }
+
+    /**
+     * Creates a new MemoryHistogram with the entries matching the filter,
+     * mantaining their order
+     */
+    public MemoryHistogram filter(HistogramFilter filter) {
+        return filter.apply(this);
     }
 
     public long getTotalMemory() {
         long ac = 0;
-        for (HistogramEntry e : map) {
-            ac += e.getSize();
+        for (int row = 0; row < size; row++) {
+            ac += sizes[row];
         }
         return ac;
     }
 
     public List<String> values() {
-        List<String> values = new ArrayList<>();
-        for (HistogramEntry histogramEntry : map) {
+        List<String> values = new ArrayList<>(size);
+        for (HistogramEntry histogramEntry : this) {
             values.add(histogramEntry.toString());
         }
         return values;
     }
 
+    /**
+     * Returns the histogram in CSV format, quoted like HistogramWriter. To export
+     * big histograms use HistogramWriter, which streams the entries without
+     * building a String.
+     */
     @Override
     public String toString() {
-        return "class,instances,size\n" + values().stream().collect(joining("\n"));
+        StringWriter writer = new StringWriter();
+        try {
+            new HistogramWriter(HistogramWriter.Format.CSV).write(this, writer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        StringBuffer sb = writer.getBuffer();
+        // Without new line after the last entry
+        if (size > 0) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
     }
 
     @Override
     public Iterator<HistogramEntry> iterator() {
-        return map.iterator();
+        return new EntryIterator();
     }
 
     public Stream<HistogramEntry> stream() {
-        return map.stream();
+        return StreamSupport.stream(spliterator(), false);
     }
 
     /**
@@ -147,95 +208,487 @@ public class MemoryHistogram implements Iterable<HistogramEntry> {
      * consumed bytes.
      */
     public MemoryHistogram diff(MemoryHistogram reference) {
-        List<HistogramEntry> all = new ArrayList<>();
-        for (HistogramEntry entry : map) {
-            HistogramEntry refEntry = reference.map.get(entry.getClassName());
-            if (refEntry != null) {
-                long size = entry.getSize() - refEntry.getSize();
-                if (size != 0) {
-                    all.add(new HistogramEntry(entry.getClassName(), entry.getInstances() - refEntry.getInstances(),
-                            size));
-                }
+        return diff(reference, DiffOptions.all());
+    }
+
+    /**
+     * Creates a new MemoryHistogram with the difference between this instance and
+     * the reference one, keeping only the classes accepted by the options. Classes
+     * whose size didn't change are excluded, and the difference of pruned classes
+     * is aggregated in an entry named {@link #OTHER_CLASSES}.
+     *
+     * Both histograms are joined by class id in a single pass over each one.
+     * Result is sorted by size.
+     *
+     * @throws IllegalArgumentException if histograms were captured in different
+     *         modes
+     */
+    public MemoryHistogram diff(MemoryHistogram reference, DiffOptions options) {
+        if (mode != reference.mode) {
+            throw new IllegalArgumentException("Can not compare a " + mode + " histogram with a " + reference.mode
+                    + " histogram");
+        }
+        int capacity = size + reference.size;
+        int[] diffIds = new int[capacity];
+        long[] diffInstances = new long[capacity];
+        long[] diffSizes = new long[capacity];
+        long[] matched = new long[(reference.size + 63) >>> 6];
+        int count = 0;
+        long otherInstances = 0;
+        long otherSize = 0;
+        boolean pruned = false;
+        for (int row = 0; row < size; row++) {
+            int refRow = reference.rowOf(this, row);
+            long refInstances = 0;
+            long refSize = 0;
+            if (refRow >= 0) {
+                matched[refRow >>> 6] |= 1L << refRow;
+                refInstances = reference.instances[refRow];
+                refSize = reference.sizes[refRow];
+            }
+            long diffSize = sizes[row] - refSize;
+            if (diffSize == 0) {
+                continue;
+            }
+            long diffInstance = instances[row] - refInstances;
+            if (options.accepts(diffSize, refSize)) {
+                diffIds[count] = ids[row];
+                diffInstances[count] = diffInstance;
+                diffSizes[count++] = diffSize;
             } else {
-                all.add(entry);
+                otherInstances += diffInstance;
+                otherSize += diffSize;
+                pruned = true;
             }
         }
-        for (HistogramEntry ref : reference.map) {
-            HistogramEntry thisEntry = map.get(ref.getClassName());
-            if (thisEntry == null) {
-                all.add(new HistogramEntry(ref.getClassName(), -ref.getInstances(), -ref.getSize()));
+        for (int refRow = 0; refRow < reference.size; refRow++) {
+            if ((matched[refRow >>> 6] & (1L << refRow)) == 0 && reference.sizes[refRow] != 0) {
+                long refSize = reference.sizes[refRow];
+                if (options.accepts(-refSize, refSize)) {
+                    diffIds[count] = idOf(reference, refRow);
+                    diffInstances[count] = -reference.instances[refRow];
+                    diffSizes[count++] = -refSize;
+                } else {
+                    otherInstances -= reference.instances[refRow];
+                    otherSize -= refSize;
+                    pruned = true;
+                }
             }
         }
-        return sortedHistogram(all);
+        MemoryHistogram res;
+        if (count > options.getTop()) {
+            RowHeap heap = new RowHeap(options.getTop());
+            for (int i = 0; i < count; i++) {
+                heap.offer(Math.abs(diffSizes[i]), i);
+            }
+            int[] selected = heap.drainSorted();
+            Arrays.sort(selected);
+            res = derived(selected.length + 1);
+            int next = 0;
+            for (int i = 0; i < count; i++) {
+                if (next < selected.length && selected[next] == i) {
+                    res.put(diffIds[i], diffInstances[i], diffSizes[i]);
+                    next++;
+                } else {
+                    otherInstances += diffInstances[i];
+                    otherSize += diffSizes[i];
+                    pruned = true;
+                }
+            }
+        } else {
+            res = derived(count + 1);
+            for (int i = 0; i < count; i++) {
+                res.put(diffIds[i], diffInstances[i], diffSizes[i]);
+            }
+        }
+        res.sortBySize();
+        if (pruned) {
+            res.put(names.intern(OTHER_CLASSES), otherInstances, otherSize);
+        }
+        return res;
+    }
+
+    /**
+     * Return the first N entries of the histogram. Histograms created by
+     * Histogramer, diff or filter are sorted by size, and the first entries are
+     * the biggest ones.
+     */
+    public MemoryHistogram getTop(int top) {
+        int count = Math.min(Math.max(top, 0), size);
+        MemoryHistogram ac = derived(count);
+        for (int row = 0; row < count; row++) {
+            ac.copyRow(this, row);
+        }
+        return ac;
+    }
+
+    /**
+     * Return the N entries with greatest value of the key, sorted by it. Entries
+     * are selected with a bounded heap in O(n log N), without sorting the
+     * histogram. Entries with the same value mantain their order.
+     */
+    public MemoryHistogram getTop(int top, HistogramKey key) {
+        RowHeap heap = new RowHeap(Math.min(Math.max(top, 0), size));
+        for (int row = 0; row < size; row++) {
+            heap.offer(key.value(instances[row], sizes[row]), row);
+        }
+        int[] rows = heap.drainSorted();
+        MemoryHistogram ac = derived(rows.length);
+        for (int row : rows) {
+            ac.copyRow(this, row);
+        }
+        return ac;
     }
 
-    private MemoryHistogram sortedHistogram(List<HistogramEntry> all) {
-        Collections.sort(all);
-        return new MemoryHistogram(all);
+    int classId(int row) {
+        return ids[row];
+    }
+
+    long instances(int row) {
+        return instances[row];
+    }
+
+    long size(int row) {
+        return sizes[row];
+    }
+
+    String className(int row) {
+        return names.name(ids[row]);
+    }
+
+    String module(int row) {
+        return names.module(ids[row]);
+    }
+
+    HistogramEntry entry(int row) {
+        return new HistogramEntry(names.name(ids[row]), instances[row], sizes[row]);
     }
 
     /**
-     * Return the top N entries of the histogram.
+     * Returns the row containing the class id, or -1 if it's not present
      */
-    public MemoryHistogram getTop(int top) {
-        int cont = 0;
-        MemoryHistogram ac = new MemoryHistogram();
-        for (HistogramEntry e : this) {
-            if (++cont > top) {
-                return ac;
+    int rowOf(int classId) {
+        int mask = slots.length - 1;
+        int slot = hashId(classId) & mask;
+        int idx = slots[slot];
+        while (idx != 0) {
+            if (ids[idx - 1] == classId) {
+                return idx - 1;
             }
-            ac.add(e);
+            slot = (slot + 1) & mask;
+            idx = slots[slot];
         }
-        return ac;
+        return -1;
+    }
+
+    /**
+     * Removes all the classes, keeping the allocated capacity
+     */
+    void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    /**
+     * Adds the class values, replacing them if the class was already present
+     */
+    void put(int classId, long classInstances, long classSize) {
+        store(classId, classInstances, classSize, false);
+    }
+
+    /**
+     * Adds the class values, summing them to the existing ones if the class was
+     * already present
+     */
+    void accumulate(int classId, long classInstances, long classSize) {
+        store(classId, classInstances, classSize, true);
+    }
+
+    private void store(int classId, long classInstances, long classSize, boolean accumulate) {
+        int mask = slots.length - 1;
+        int slot = hashId(classId) & mask;
+        int idx = slots[slot];
+        while (idx != 0) {
+            if (ids[idx - 1] == classId) {
+                instances[idx - 1] = accumulate ? instances[idx - 1] + classInstances : classInstances;
+                sizes[idx - 1] = accumulate ? sizes[idx - 1] + classSize : classSize;
+                return;
+            }
+            slot = (slot + 1) & mask;
+            idx = slots[slot];
+        }
+        if (size == ids.length) {
+            grow(size * 2);
+        }
+        ids[size] = classId;
+        instances[size] = classInstances;
+        sizes[size] = classSize;
+        size++;
+        if (slots.length < slotsFor(size)) {
+            rebuildSlots(slotsFor(ids.length));
+        } else {
+            slots[slot] = size;
+        }
+    }
+
+    void copyRow(MemoryHistogram from, int row) {
+        put(idOf(from, row), from.instances[row], from.sizes[row]);
+    }
+
+    /**
+     * Returns the row of the class of a row of other histogram, or -1 if it's not
+     * present
+     */
+    int rowOf(MemoryHistogram other, int otherRow) {
+        if (other.names == names) {
+            return rowOf(other.ids[otherRow]);
+        }
+        int id = names.find(other.className(otherRow));
+        return id < 0 ? -1 : rowOf(id);
+    }
+
+    /**
+     * Returns the id in the names table of this histogram of the class of a row of
+     * other histogram, adding it to the table if it's not present
+     */
+    int idOf(MemoryHistogram other, int otherRow) {
+        if (other.names == names) {
+            return other.ids[otherRow];
+        }
+        return names.intern(other.className(otherRow), other.module(otherRow));
+    }
+
+    /**
+     * Table of the names of the class ids of this histogram
+     */
+    ClassNameTable names() {
+        return names;
+    }
+
+    /**
+     * Creates an empty histogram of the same mode, which shares the names table
+     * of this histogram
+     */
+    MemoryHistogram derived(int expectedSize) {
+        MemoryHistogram res = new MemoryHistogram(expectedSize, names);
+        res.mode = mode;
+        return res;
+    }
+
+    /**
+     * Creates an independent copy of the histogram, which shares the names table
+     * of this histogram
+     */
+    MemoryHistogram copy() {
+        MemoryHistogram res = derived(0);
+        res.ids = ids.clone();
+        res.instances = instances.clone();
+        res.sizes = sizes.clone();
+        res.slots = slots.clone();
+        res.size = size;
+        res.timestamp = timestamp;
+        return res;
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        instances = Arrays.copyOf(instances, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+    }
+
+    private void rebuildSlots(int slotsSize) {
+        slots = new int[slotsSize];
+        int mask = slotsSize - 1;
+        for (int row = 0; row < size; row++) {
+            int slot = hashId(ids[row]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = row + 1;
+        }
+    }
+
+    /**
+     * Sorts rows by size in descending order. Sort is stable, equal sized rows
+     * mantain their insertion order.
+     */
+    void sortBySize() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[size], 0, size);
+        int[] sortedIds = new int[ids.length];
+        long[] sortedInstances = new long[ids.length];
+        long[] sortedSizes = new long[ids.length];
+        for (int i = 0; i < size; i++) {
+            sortedIds[i] = ids[order[i]];
+            sortedInstances[i] = instances[order[i]];
+            sortedSizes[i] = sizes[order[i]];
+        }
+        ids = sortedIds;
+        instances = sortedInstances;
+        sizes = sortedSizes;
+        rebuildSlots(slots.length);
+    }
+
+    private void mergeSort(int[] order, int[] aux, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(order, aux, from, mid);
+        mergeSort(order, aux, mid, to);
+        System.arraycopy(order, from, aux, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && sizes[aux[left]] >= sizes[aux[right]])) {
+                order[i] = aux[left++];
+            } else {
+                order[i] = aux[right++];
+            }
+        }
+    }
+
+    private static int slotsFor(int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    private static int hashId(int classId) {
+        return classId * 0x9E3779B9;
+    }
+
+    private class EntryIterator implements Iterator<HistogramEntry> {
+
+        private int row = 0;
+
+        @Override
+        public boolean hasNext() {
+            return row < size;
+        }
+
+        @Override
+        public HistogramEntry next() {
+            if (row >= size) {
+                throw new NoSuchElementException();
+            }
+            return entry(row++);
+        }
+
     }
 
     /**
      * Map like implementation avoiding use of HashMap or LinkedHashMap and pollute
-     * heap with instances of objects we want to measure. It's a linked list of
-     * HistMapNode, which mantains insert order. Put and get has O(n) complexity.
+     * heap with instances of objects we want to measure. Keys and values are kept
+     * in arrays, which mantains insert order, and are indexed by an open
+     * addressing hash table of int positions. Put and get has O(1) complexity and
+     * no object is allocated per entry.
      */
     public static class SimpleMap<K, V> implements Iterable<V> {
 
-        private SimpleMapNode<K, V> root;
-        private SimpleMapNode<K, V> last;
+        private Object[] keys;
+        private Object[] values;
+        private int[] hashes;
+        private int[] slots;
+        private int size;
+
+        public SimpleMap() {
+            this(DEFAULT_SIZE);
+        }
+
+        /**
+         * Creates a map pre-sized to contain expectedSize entries without being
+         * resized
+         */
+        public SimpleMap(int expectedSize) {
+            int capacity = Math.max(expectedSize, 1);
+            keys = new Object[capacity];
+            values = new Object[capacity];
+            hashes = new int[capacity];
+            slots = new int[slotsFor(capacity)];
+        }
 
         public void put(K key, V value) {
-            if (root == null) {
-                root = new SimpleMapNode<>(key, value);
-                last = root;
-            } else {
-                SimpleMapNode<K, V> find = find(key);
-                if (find == null) {
-                    SimpleMapNode<K, V> newOne = new SimpleMapNode<>(key, value);
-                    last.addNext(newOne);
-                    last = newOne;
-                } else {
-                    find.value = value;
-                }
+            int hash = hash(key);
+            int slot = find(key, hash);
+            if (slots[slot] != 0) {
+                values[slots[slot] - 1] = value;
+                return;
+            }
+            if (size == keys.length) {
+                grow();
+                slot = find(key, hash);
             }
+            keys[size] = key;
+            values[size] = value;
+            hashes[size] = hash;
+            slots[slot] = ++size;
         }
 
+        @SuppressWarnings("unchecked")
         public V get(K key) {
-            SimpleMapNode<K, V> find = find(key);
-            if (find != null) {
-                return find.value;
+            int idx = slots[find(key, hash(key))];
+            if (idx != 0) {
+                return (V) values[idx - 1];
             }
             return null;
         }
 
         public boolean containsKey(K key) {
-            return find(key) != null;
+            return slots[find(key, hash(key))] != 0;
         }
 
-        private SimpleMapNode<K, V> find(K key) {
-            SimpleMapNode<K, V> it = root;
-            while (it != null) {
-                if (it.key.equals(key)) {
-                    return it;
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns the slot containing the key, or the empty slot where it should be
+         * inserted. Uses linear probing over a table with at least one free slot.
+         */
+        private int find(Object key, int hash) {
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            int idx = slots[slot];
+            while (idx != 0) {
+                if (hashes[idx - 1] == hash && keys[idx - 1].equals(key)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+                idx = slots[slot];
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            if (slotsFor(capacity) > slots.length) {
+                slots = new int[slotsFor(capacity)];
+                int mask = slots.length - 1;
+                for (int i = 0; i < size; i++) {
+                    int slot = hashes[i] & mask;
+                    while (slots[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slots[slot] = i + 1;
                 }
-                it = it.next;
             }
-            return null;
+        }
+
+        /**
+         * Hash table size: the power of two which keeps load factor under 0.5
+         */
+        private static int slotsFor(int capacity) {
+            return Integer.highestOneBit(capacity * 2 - 1) << 1;
+        }
+
+        private static int hash(Object key) {
+            int h = key.hashCode();
+            return h ^ (h >>> 16);
         }
 
         @Override
@@ -249,39 +702,24 @@ public class MemoryHistogram implements Iterable<HistogramEntry> {
 
         private class MemoryHistogramIterator implements Iterator<V> {
 
-            SimpleMapNode<K, V> current = root;
+            private int current = 0;
 
             @Override
             public boolean hasNext() {
-                return current != null;
+                return current < size;
             }
 
             @Override
+            @SuppressWarnings("unchecked")
             public V next() {
-                V value = current.value;
-                current = current.next;
-                return value;
+                if (current >= size) {
+                    throw new NoSuchElementException();
+                }
+                return (V) values[current++];
             }
 
         }
 
     }
 
-    private static class SimpleMapNode<K, V> {
-
-        private K key;
-        private V value;
-        private SimpleMapNode<K, V> next;
-
-        SimpleMapNode(K key, V value) {
-            this.key = key;
-            this.value = value;
-        }
-
-        public void addNext(SimpleMapNode<K, V> next) {
-            this.next = next;
-        }
-
-    }
-
 }
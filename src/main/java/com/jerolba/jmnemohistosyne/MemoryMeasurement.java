@@ -0,0 +1,52 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+/**
+ * Memory consumed by a code block: the objects still retained after its
+ * execution and the total bytes allocated during it
+ */
+public class MemoryMeasurement {
+
+    private final MemoryHistogram retained;
+    private final long allocatedBytes;
+
+    MemoryMeasurement(MemoryHistogram retained, long allocatedBytes) {
+        this.retained = retained;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Difference of objects that exists before and after the execution
+     */
+    public MemoryHistogram getRetained() {
+        return retained;
+    }
+
+    /**
+     * Bytes allocated during the execution, including objects which are already
+     * garbage
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "allocated," + allocatedBytes + "\n" + retained;
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rules which rewrite class names while parsing a histogram, to collapse
+ * synthetic classes generated at runtime into a stable name. Classes with the
+ * same normalized name are aggregated in a single entry, summing their instances
+ * and bytes.
+ *
+ * Rules are regular expressions applied in order to the translated class name,
+ * replacing all their matches. Rules are only evaluated the first time a raw
+ * class name is found, because its result is cached. Instances are immutable
+ * and each method returns a new copy with the rule added.
+ */
+public final class NameNormalization {
+
+    private static final NameNormalization NONE = new NameNormalization(new Pattern[0], new String[0]);
+
+    private static final NameNormalization SYNTHETIC = NONE
+            // com.foo.Bar$$Lambda$1234/0x0000000800c4a440 or com.foo.Bar$$Lambda/0x0000000800c4a440
+            .add("\\$\\$Lambda(\\$\\d+)?/(0x)?[0-9a-fA-F]+", "\\$\\$Lambda")
+            // jdk.proxy2.$Proxy57 or com.sun.proxy.$Proxy57
+            .add("^jdk\\.proxy\\d+\\.", "jdk.proxy.")
+            .add("\\$Proxy\\d+", "\\$Proxy")
+            // $$EnhancerByCGLIB$$8b4a2f1c, $$FastClassBySpringCGLIB$$8b4a2f1c_2 or $$SpringCGLIB$$0
+            .add("(\\$\\$\\w*CGLIB)\\$\\$[0-9a-fA-F]+(_\\d+)?", "$1")
+            // sun.reflect.GeneratedMethodAccessor812 or GeneratedSerializationConstructorAccessor12
+            .add("(Generated\\w*Accessor)\\d+", "$1")
+            // Other hidden classes, like com.foo.Bar$$Lambda$Hidden/0x0000000800c4a440
+            .add("/0x[0-9a-fA-F]+", "");
+
+    private final Pattern[] patterns;
+    private final String[] replacements;
+
+    private NameNormalization(Pattern[] patterns, String[] replacements) {
+        this.patterns = patterns;
+        this.replacements = replacements;
+    }
+
+    /**
+     * Normalization which doesn't change any class name
+     */
+    public static NameNormalization none() {
+        return NONE;
+    }
+
+    /**
+     * Normalization of the names of lambdas, dynamic proxies, CGLIB generated
+     * classes, reflection accessors and hidden classes, removing their generated
+     * numbers and addresses
+     */
+    public static NameNormalization synthetic() {
+        return SYNTHETIC;
+    }
+
+    /**
+     * Adds a rule which replaces all the matches of the regular expression, with
+     * the same syntax as {@link Matcher#replaceAll(String)}
+     */
+    public NameNormalization add(String regex, String replacement) {
+        return add(Pattern.compile(regex), replacement);
+    }
+
+    /**
+     * Adds a rule which replaces all the matches of the pattern, with the same
+     * syntax as {@link Matcher#replaceAll(String)}
+     */
+    public NameNormalization add(Pattern pattern, String replacement) {
+        Pattern[] newPatterns = Arrays.copyOf(patterns, patterns.length + 1);
+        String[] newReplacements = Arrays.copyOf(replacements, replacements.length + 1);
+        newPatterns[patterns.length] = pattern;
+        newReplacements[replacements.length] = replacement;
+        return new NameNormalization(newPatterns, newReplacements);
+    }
+
+    /**
+     * Applies all the rules to the class name
+     */
+    public String normalize(String className) {
+        String name = className;
+        for (int i = 0; i < patterns.length; i++) {
+            Matcher matcher = patterns[i].matcher(name);
+            if (matcher.find()) {
+                name = matcher.replaceAll(replacements[i]);
+            }
+        }
+        return name;
+    }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jerolba.jmnemohistosyne.MemoryHistogram.SimpleMap;
+
+/**
+ * Package tree of a histogram, with the aggregated number of instances and
+ * bytes of each package and all its subpackages, and the aggregated values of
+ * each JPMS module.
+ *
+ * It's built once per histogram in O(classes x depth). After that, the total of
+ * any package is answered with a single hash lookup. Two rollups can be
+ * compared with diff.
+ *
+ * Primitive arrays are assigned to the root package. Class names without
+ * package, like "String" or "Object[]", are assigned to java.lang, because
+ * Histogramer reduces the names of java.lang classes. Classes whose module is
+ * unknown are grouped in the {@link #UNNAMED_MODULE} module.
+ */
+public class PackageRollup {
+
+    /**
+     * Name of the root package
+     */
+    public static final String ROOT = "";
+
+    /**
+     * Name of the module which groups classes without known module
+     */
+    public static final String UNNAMED_MODULE = "<unnamed>";
+
+    private static final String JAVA_LANG = "java.lang";
+    private static final String[] PRIMITIVE_ARRAYS = { "long[]", "int[]", "byte[]", "char[]", "short[]", "float[]",
+            "double[]", "boolean[]" };
+
+    private final SimpleMap<String, RollupNode> packages = new SimpleMap<>();
+    private final SimpleMap<String, RollupNode> modules = new SimpleMap<>();
+    private final RollupNode root = new RollupNode(ROOT, null);
+
+    private PackageRollup() {
+        packages.put(ROOT, root);
+    }
+
+    /**
+     * Builds the package tree of the histogram
+     */
+    public static PackageRollup of(MemoryHistogram histogram) {
+        PackageRollup rollup = new PackageRollup();
+        for (int row = 0; row < histogram.size(); row++) {
+            long instances = histogram.instances(row);
+            long size = histogram.size(row);
+            String pkg = packageOf(histogram.className(row));
+            for (RollupNode node = rollup.node(pkg); node != null; node = node.getParent()) {
+                node.add(instances, size);
+            }
+            String module = histogram.module(row);
+            rollup.module(module == null ? UNNAMED_MODULE : module).add(instances, size);
+        }
+        return rollup;
+    }
+
+    /**
+     * Root package, which contains the totals of the histogram
+     */
+    public RollupNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the node of the package, or null if the histogram doesn't contain
+     * any class of it. Package name can end with ".*".
+     */
+    public RollupNode getPackage(String packageName) {
+        return packages.get(normalize(packageName));
+    }
+
+    /**
+     * Bytes of all classes of the package and its subpackages
+     */
+    public long getSize(String packageName) {
+        RollupNode node = getPackage(packageName);
+        return node == null ? 0 : node.getSize();
+    }
+
+    /**
+     * Instances of all classes of the package and its subpackages
+     */
+    public long getInstances(String packageName) {
+        RollupNode node = getPackage(packageName);
+        return node == null ? 0 : node.getInstances();
+    }
+
+    /**
+     * Returns the node of the module, or null if the histogram doesn't contain
+     * any class of it
+     */
+    public RollupNode getModule(String moduleName) {
+        return modules.get(moduleName);
+    }
+
+    /**
+     * All modules found in the histogram, in order of appearance
+     */
+    public List<RollupNode> getModules() {
+        List<RollupNode> all = new ArrayList<>(modules.size());
+        for (RollupNode module : modules) {
+            all.add(module);
+        }
+        return all;
+    }
+
+    /**
+     * Creates a new rollup with the difference of each package and module
+     * between this rollup and the reference one
+     */
+    public PackageRollup diff(PackageRollup reference) {
+        PackageRollup res = new PackageRollup();
+        diffNodes(packages, reference.packages, res, true);
+        diffNodes(modules, reference.modules, res, false);
+        return res;
+    }
+
+    private static void diffNodes(SimpleMap<String, RollupNode> current, SimpleMap<String, RollupNode> reference,
+            PackageRollup res, boolean isPackage) {
+        for (RollupNode node : current) {
+            RollupNode ref = reference.get(node.getName());
+            long instances = node.getInstances() - (ref == null ? 0 : ref.getInstances());
+            long size = node.getSize() - (ref == null ? 0 : ref.getSize());
+            res.nodeOf(node.getName(), isPackage).add(instances, size);
+        }
+        for (RollupNode ref : reference) {
+            if (current.get(ref.getName()) == null) {
+                res.nodeOf(ref.getName(), isPackage).add(-ref.getInstances(), -ref.getSize());
+            }
+        }
+    }
+
+    private RollupNode nodeOf(String name, boolean isPackage) {
+        return isPackage ? node(name) : module(name);
+    }
+
+    private RollupNode node(String packageName) {
+        RollupNode node = packages.get(packageName);
+        if (node == null) {
+            node = new RollupNode(packageName, node(parentOf(packageName)));
+            packages.put(packageName, node);
+        }
+        return node;
+    }
+
+    private RollupNode module(String moduleName) {
+        RollupNode node = modules.get(moduleName);
+        if (node == null) {
+            node = new RollupNode(moduleName, null);
+            modules.put(moduleName, node);
+        }
+        return node;
+    }
+
+    private static String parentOf(String packageName) {
+        int idx = packageName.lastIndexOf('.');
+        return idx < 0 ? ROOT : packageName.substring(0, idx);
+    }
+
+    static String packageOf(String className) {
+        int idx = className.lastIndexOf('.');
+        if (idx >= 0) {
+            return className.substring(0, idx);
+        }
+        for (String primitiveArray : PRIMITIVE_ARRAYS) {
+            if (className.startsWith(primitiveArray)) {
+                return ROOT;
+            }
+        }
+        if (className.equals(MemoryHistogram.OTHER_CLASSES)) {
+            return ROOT;
+        }
+        return JAVA_LANG;
+    }
+
+    private static String normalize(String packageName) {
+        if (packageName.endsWith(".*")) {
+            return packageName.substring(0, packageName.length() - 2);
+        }
+        if (packageName.endsWith(".")) {
+            return packageName.substring(0, packageName.length() - 1);
+        }
+        return packageName;
+    }
+
+}
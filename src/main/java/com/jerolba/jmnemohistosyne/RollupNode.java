@@ -0,0 +1,78 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Aggregated number of instances and bytes of all classes in a package,
+ * including its subpackages, or in a module.
+ */
+public class RollupNode {
+
+    private final String name;
+    private final RollupNode parent;
+    private final List<RollupNode> children = new ArrayList<>();
+    private long instances;
+    private long size;
+
+    RollupNode(String name, RollupNode parent) {
+        this.name = name;
+        this.parent = parent;
+        if (parent != null) {
+            parent.children.add(this);
+        }
+    }
+
+    /**
+     * Full name of the package or module. Root package has an empty name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public long getInstances() {
+        return instances;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Direct subpackages of the package, in order of appearance in the histogram
+     */
+    public List<RollupNode> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    void add(long nodeInstances, long nodeSize) {
+        this.instances += nodeInstances;
+        this.size += nodeSize;
+    }
+
+    RollupNode getParent() {
+        return parent;
+    }
+
+    @Override
+    public String toString() {
+        return name + "," + instances + "," + size;
+    }
+
+}
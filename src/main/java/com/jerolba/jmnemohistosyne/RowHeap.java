@@ -0,0 +1,113 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+/**
+ * Bounded binary min-heap of rows with a long key, which keeps the K rows with
+ * greatest key in O(n log k) without boxing. When keys are equal, the row with
+ * lower index is considered greater, so selection is stable.
+ */
+final class RowHeap {
+
+    private final long[] keys;
+    private final int[] rows;
+    private int size = 0;
+
+    RowHeap(int capacity) {
+        keys = new long[capacity];
+        rows = new int[capacity];
+    }
+
+    /**
+     * Offers a row to the heap. If the heap is full, the row replaces the lowest
+     * one if it's greater.
+     */
+    void offer(long key, int row) {
+        if (size < keys.length) {
+            keys[size] = key;
+            rows[size] = row;
+            siftUp(size++);
+        } else if (size > 0 && greater(key, row, keys[0], rows[0])) {
+            keys[0] = key;
+            rows[0] = row;
+            siftDown(0, size);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns selected rows sorted from greatest to lowest key. The heap is
+     * consumed.
+     */
+    int[] drainSorted() {
+        int count = size;
+        while (size > 1) {
+            swap(0, --size);
+            siftDown(0, size);
+        }
+        size = 0;
+        int[] sorted = new int[count];
+        System.arraycopy(rows, 0, sorted, 0, count);
+        return sorted;
+    }
+
+    private void siftUp(int idx) {
+        while (idx > 0) {
+            int parent = (idx - 1) >>> 1;
+            if (!greater(keys[parent], rows[parent], keys[idx], rows[idx])) {
+                return;
+            }
+            swap(idx, parent);
+            idx = parent;
+        }
+    }
+
+    private void siftDown(int idx, int limit) {
+        while (true) {
+            int left = 2 * idx + 1;
+            if (left >= limit) {
+                return;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < limit && greater(keys[left], rows[left], keys[right], rows[right])) {
+                smallest = right;
+            }
+            if (!greater(keys[idx], rows[idx], keys[smallest], rows[smallest])) {
+                return;
+            }
+            swap(idx, smallest);
+            idx = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        int row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+    }
+
+    private static boolean greater(long keyA, int rowA, long keyB, int rowB) {
+        return keyA > keyB || (keyA == keyB && rowA < rowB);
+    }
+
+}
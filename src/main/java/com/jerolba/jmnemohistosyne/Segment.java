@@ -0,0 +1,78 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne;
+
+/**
+ * Snapshots of a HistogramStore segment, with the values of each class stored
+ * as a column of entries ordered by snapshot. Class ids are the ids of the
+ * store dictionary.
+ */
+interface Segment {
+
+    /**
+     * Receives the entries of a class column
+     */
+    @FunctionalInterface
+    interface EntryVisitor {
+
+        void visit(int snapshot, long instances, long bytes);
+
+    }
+
+    int snapshots();
+
+    long timestamp(int snapshot);
+
+    /**
+     * Number of histograms summed in the snapshot, which is greater than one in
+     * downsampled snapshots
+     */
+    default int samples(int snapshot) {
+        return 1;
+    }
+
+    /**
+     * Visits the entries of the class column in snapshots between from
+     * (inclusive) and to (exclusive)
+     */
+    void visit(int classId, int from, int to, EntryVisitor visitor);
+
+    default long firstTimestamp() {
+        return timestamp(0);
+    }
+
+    default long lastTimestamp() {
+        return timestamp(snapshots() - 1);
+    }
+
+    /**
+     * Index of the first snapshot with a timestamp not lower than the given one
+     */
+    default int lowerBound(long timestamp) {
+        int low = 0;
+        int high = snapshots();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamp(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+}
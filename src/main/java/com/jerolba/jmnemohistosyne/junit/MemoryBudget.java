@@ -0,0 +1,67 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne.junit;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.junit.jupiter.api.extension.ExtendWith;
+
+/**
+ * Fails the test if the memory retained at the end of its execution exceeds the
+ * budget. Retained memory is calculated like Histogramer.getDiff: objects which
+ * exist after the test execution and didn't exist before it. Only objects
+ * reachable from the test instance or static fields are retained.
+ *
+ * Can be applied to a test method or to a test class, applying to all its tests.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@ExtendWith(MemoryBudgetExtension.class)
+public @interface MemoryBudget {
+
+    /**
+     * Maximum bytes retained by all the measured classes
+     */
+    long maxBytes() default Long.MAX_VALUE;
+
+    /**
+     * Maximum bytes retained by each measured class
+     */
+    long maxBytesPerClass() default Long.MAX_VALUE;
+
+    /**
+     * Criteria of the measured classes, with the same syntax as
+     * MemoryHistogram.filter. All classes are measured if empty.
+     */
+    String[] classes() default {};
+
+    /**
+     * Reuses one reference histogram for all the tests of the class, instead of
+     * capturing one before each test. It's only applied if the test instance
+     * lifecycle is per method, because state retained by a shared test instance
+     * would be counted in next tests. With a shared reference histogram, the test
+     * instance and its setup are also counted, and so is the memory retained by
+     * previous tests of the class, like static state, which makes the result
+     * depend on the test order. Disabled by default.
+     */
+    boolean sharedBaseline() default false;
+
+}
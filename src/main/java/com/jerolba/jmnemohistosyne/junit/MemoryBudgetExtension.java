@@ -0,0 +1,122 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.jmnemohistosyne.junit;
+
+import java.lang.reflect.AnnotatedElement;
+import java.util.Optional;
+
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.extension.AfterTestExecutionCallback;
+import org.junit.jupiter.api.extension.BeforeTestExecutionCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ExtensionContext.Namespace;
+import org.junit.jupiter.api.extension.ExtensionContext.Store;
+
+import com.jerolba.jmnemohistosyne.HistogramEntry;
+import com.jerolba.jmnemohistosyne.HistogramFilter;
+import com.jerolba.jmnemohistosyne.Histogramer;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+
+/**
+ * JUnit Jupiter extension which verifies the {@link MemoryBudget} of tests.
+ *
+ * A histogram is captured before and after the test execution. If the budget
+ * shares the baseline, the histogram captured before the first test is reused
+ * by the rest of tests of the class, saving a full GC per test.
+ */
+public class MemoryBudgetExtension implements BeforeTestExecutionCallback, AfterTestExecutionCallback {
+
+    private static final Namespace NAMESPACE = Namespace.create(MemoryBudgetExtension.class);
+    private static final String HISTOGRAMER = "histogramer";
+    private static final String BASELINE = "baseline";
+    private static final int REPORTED_CLASSES = 10;
+
+    @Override
+    public void beforeTestExecution(ExtensionContext context) {
+        MemoryBudget budget = budgetOf(context);
+        if (budget == null) {
+            return;
+        }
+        Store classStore = classStore(context);
+        Histogramer histogramer = classStore.getOrComputeIfAbsent(HISTOGRAMER, key -> new Histogramer(),
+                Histogramer.class);
+        if (isSharedBaseline(context, budget)) {
+            classStore.getOrComputeIfAbsent(BASELINE, key -> histogramer.createHistogram(), MemoryHistogram.class);
+        } else {
+            context.getStore(NAMESPACE).put(BASELINE, histogramer.createHistogram());
+        }
+    }
+
+    @Override
+    public void afterTestExecution(ExtensionContext context) {
+        MemoryBudget budget = budgetOf(context);
+        if (budget == null || context.getExecutionException().isPresent()) {
+            return;
+        }
+        Store classStore = classStore(context);
+        Store store = isSharedBaseline(context, budget) ? classStore : context.getStore(NAMESPACE);
+        MemoryHistogram baseline = store.get(BASELINE, MemoryHistogram.class);
+        MemoryHistogram current = classStore.get(HISTOGRAMER, Histogramer.class).createHistogram();
+        MemoryHistogram diff = current.diff(baseline);
+        if (budget.classes().length > 0) {
+            diff = diff.filter(HistogramFilter.compile((Object[]) budget.classes()));
+        }
+        verify(context, budget, diff);
+    }
+
+    private static void verify(ExtensionContext context, MemoryBudget budget, MemoryHistogram diff) {
+        long total = diff.getTotalMemory();
+        if (total > budget.maxBytes()) {
+            throw new AssertionError(context.getDisplayName() + " retained " + total + " bytes, exceeding budget of "
+                    + budget.maxBytes() + " bytes. Top classes:\n" + diff.getTop(REPORTED_CLASSES));
+        }
+        for (HistogramEntry entry : diff) {
+            if (entry.getSize() > budget.maxBytesPerClass()) {
+                throw new AssertionError(context.getDisplayName() + " retained " + entry.getSize() + " bytes of "
+                        + entry.getClassName() + ", exceeding budget of " + budget.maxBytesPerClass()
+                        + " bytes per class. Top classes:\n" + diff.getTop(REPORTED_CLASSES));
+            }
+        }
+    }
+
+    private static boolean isSharedBaseline(ExtensionContext context, MemoryBudget budget) {
+        Optional<Lifecycle> lifecycle = context.getTestInstanceLifecycle();
+        return budget.sharedBaseline() && lifecycle.isPresent() && lifecycle.get() == Lifecycle.PER_METHOD;
+    }
+
+    /**
+     * Store of the test class, which lives while its tests are executed
+     */
+    private static Store classStore(ExtensionContext context) {
+        return context.getParent().orElse(context).getStore(NAMESPACE);
+    }
+
+    /**
+     * Budget of the test method, or of its class if the method is not annotated
+     */
+    private static MemoryBudget budgetOf(ExtensionContext context) {
+        MemoryBudget budget = annotation(context.getRequiredTestMethod());
+        if (budget == null) {
+            budget = annotation(context.getRequiredTestClass());
+        }
+        return budget;
+    }
+
+    private static MemoryBudget annotation(AnnotatedElement element) {
+        return element.getAnnotation(MemoryBudget.class);
+    }
+
+}
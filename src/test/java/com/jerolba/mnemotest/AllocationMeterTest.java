@@ -0,0 +1,102 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.AllocationMeter;
+import com.jerolba.jmnemohistosyne.Histogramer;
+import com.jerolba.jmnemohistosyne.MemoryMeasurement;
+
+public class AllocationMeterTest {
+
+    @Test
+    public void measuresGarbageOfCallingThread() {
+        AllocationMeter meter = new AllocationMeter();
+        long allocated = meter.measure(() -> {
+            for (int i = 0; i < 10; i++) {
+                consume(new byte[100_000]);
+            }
+        });
+        assertTrue(allocated >= 1_000_000);
+        assertTrue(allocated < 1_100_000);
+    }
+
+    @Test
+    public void measuresWorkerThreads() throws InterruptedException {
+        SynchronousQueue<Runnable> tasks = new SynchronousQueue<>();
+        Thread worker = new Thread(() -> {
+            try {
+                while (true) {
+                    tasks.take().run();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        worker.setDaemon(true);
+        worker.start();
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            tasks.put(started::countDown);
+            started.await();
+            AllocationMeter meter = new AllocationMeter(worker);
+            long allocated = meter.measure(() -> {
+                CountDownLatch done = new CountDownLatch(1);
+                try {
+                    tasks.put(() -> {
+                        consume(new byte[2_000_000]);
+                        done.countDown();
+                    });
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(allocated >= 2_000_000);
+        } finally {
+            worker.interrupt();
+        }
+    }
+
+    @Test
+    public void reportsAllocatedNextToRetained() {
+        MemoryMeasurement measurement = Histogramer.measure(() -> {
+            List<Long> list = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                consume(new byte[1000]);
+                list.add(Long.valueOf(i + 1000));
+            }
+            return list;
+        });
+        assertTrue(measurement.getAllocatedBytes() >= 1000 * 1000);
+        assertEquals(1000, measurement.getRetained().get("Long").getInstances());
+        assertTrue(measurement.getRetained().getTotalMemory() < measurement.getAllocatedBytes());
+    }
+
+    private static void consume(byte[] data) {
+        data[0] = 1;
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.ClassStatistics;
+import com.jerolba.jmnemohistosyne.DiffRunner;
+import com.jerolba.jmnemohistosyne.DiffStatistics;
+import com.jerolba.jmnemohistosyne.Histogramer;
+
+public class DiffRunnerTest {
+
+    @Test
+    public void measuresRepeatedly() {
+        DiffStatistics statistics = new DiffRunner().setWarmups(1).setIterations(3).run(() -> {
+            List<Measured> list = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                list.add(new Measured());
+            }
+            return list;
+        });
+        assertEquals(3, statistics.getIterations());
+        ClassStatistics measured = statistics.get("com.jerolba.mnemotest.DiffRunnerTest$Measured");
+        assertEquals(100.0, measured.getMedianInstances());
+        assertEquals(100, measured.getMinInstances());
+        assertEquals(100, measured.getMaxInstances());
+        assertEquals(0.0, measured.getStdDevInstances());
+        assertEquals(measured.getMinSize(), measured.getMaxSize());
+        assertNull(statistics.getBaseline().get("com.jerolba.mnemotest.DiffRunnerTest$Measured"));
+    }
+
+    @Test
+    public void measuresWithoutCalibration() {
+        DiffStatistics statistics = new DiffRunner().setWarmups(0).setIterations(2).setCalibrate(false)
+                .run(Measured::new);
+        assertEquals(0, statistics.getBaseline().size());
+        assertEquals(1.0, statistics.get("com.jerolba.mnemotest.DiffRunnerTest$Measured").getMedianInstances());
+    }
+
+    @Test
+    public void capturesIgnoringMinInterval() {
+        Histogramer histogramer = new Histogramer().setMinInterval(Duration.ofHours(1));
+        DiffStatistics statistics = new DiffRunner(histogramer).setWarmups(0).setIterations(2).setCalibrate(false)
+                .run(Measured::new);
+        assertEquals(1.0, statistics.get("com.jerolba.mnemotest.DiffRunnerTest$Measured").getMedianInstances());
+    }
+
+    @Test
+    public void requiresIterations() {
+        assertThrows(IllegalArgumentException.class, () -> new DiffRunner().setIterations(0));
+    }
+
+    private static class Measured {
+        @SuppressWarnings("unused")
+        private long value;
+    }
+
+}
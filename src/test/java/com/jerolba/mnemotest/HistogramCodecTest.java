@@ -0,0 +1,127 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.HistogramCodec;
+import com.jerolba.jmnemohistosyne.HistogramEntry;
+import com.jerolba.jmnemohistosyne.HistogramMode;
+import com.jerolba.jmnemohistosyne.Histogramer;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+
+public class HistogramCodecTest {
+
+    private MemoryHistogram histogram = new MemoryHistogram();
+    private MemoryHistogram next = new MemoryHistogram();
+
+    public HistogramCodecTest() {
+        histogram.add("byte[]", 25061, 2407712);
+        histogram.add("java.util.HashMap$Node", 2300, 55200);
+        histogram.add("com.foo.Ñandú", 1, 24);
+        histogram.add("com.foo.Negative", -10, -240);
+
+        next.add("byte[]", 25100, 2410000);
+        next.add("com.foo.New", 3, 72);
+        next.add("java.util.HashMap$Node", 2310, 55440);
+    }
+
+    @Test
+    public void roundTripsHistogram() throws IOException {
+        MemoryHistogram read = HistogramCodec.read(ByteBuffer.wrap(encode(histogram, null)), null);
+        assertSameContent(histogram, read);
+        assertEquals(-240, read.get("com.foo.Negative").getSize());
+        assertEquals(24, read.get("com.foo.Ñandú").getSize());
+    }
+
+    @Test
+    public void roundTripsDeltaEncodedHistogram() throws IOException {
+        byte[] full = encode(next, null);
+        byte[] delta = encode(next, histogram);
+        assertTrue(delta.length < full.length);
+        MemoryHistogram read = HistogramCodec.read(ByteBuffer.wrap(delta), histogram);
+        assertSameContent(next, read);
+        assertNull(read.get("com.foo.Negative"));
+    }
+
+    @Test
+    public void roundTripsHistogramMode() throws IOException {
+        MemoryHistogram all = new Histogramer(HistogramMode.ALL).createHistogram();
+        MemoryHistogram read = HistogramCodec.read(ByteBuffer.wrap(encode(all, null)), null);
+        assertEquals(HistogramMode.ALL, read.getMode());
+        assertSameContent(all, read);
+    }
+
+    @Test
+    public void deltaRequiresTheSameBase() throws IOException {
+        byte[] delta = encode(next, histogram);
+        assertThrows(IllegalArgumentException.class, () -> HistogramCodec.read(ByteBuffer.wrap(delta), next));
+        assertThrows(IllegalArgumentException.class, () -> HistogramCodec.read(ByteBuffer.wrap(delta), null));
+    }
+
+    @Test
+    public void rejectsUnknownFormat() {
+        ByteBuffer buffer = ByteBuffer.wrap("class,instances,size".getBytes());
+        assertThrows(IOException.class, () -> HistogramCodec.read(buffer, null));
+    }
+
+    @Test
+    public void canBeReadFromFile() throws IOException {
+        Path file = Files.createTempFile("histogram", ".bin");
+        try {
+            HistogramCodec.write(histogram, file);
+            MemoryHistogram read = HistogramCodec.read(file);
+            assertSameContent(histogram, read);
+            assertEquals(2407712 + 55200 + 24 - 240, read.getTotalMemory());
+            assertEquals(2, read.filter("java.*", "byte[]").size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private byte[] encode(MemoryHistogram histogram, MemoryHistogram base) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        HistogramCodec.write(histogram, base, os);
+        return os.toByteArray();
+    }
+
+    private void assertSameContent(MemoryHistogram expected, MemoryHistogram actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        Iterator<HistogramEntry> it = actual.iterator();
+        for (HistogramEntry entry : expected) {
+            HistogramEntry other = it.next();
+            assertEquals(entry.getClassName(), other.getClassName());
+            assertEquals(entry.getInstances(), other.getInstances());
+            assertEquals(entry.getSize(), other.getSize());
+        }
+        assertFalse(it.hasNext());
+    }
+
+}
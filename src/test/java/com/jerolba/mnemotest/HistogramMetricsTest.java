@@ -0,0 +1,173 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.HistogramMetrics;
+import com.jerolba.jmnemohistosyne.HistogramMode;
+import com.jerolba.jmnemohistosyne.Histogramer;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+import com.sun.net.httpserver.HttpServer;
+
+public class HistogramMetricsTest {
+
+    private MemoryHistogram histogram = new MemoryHistogram();
+
+    public HistogramMetricsTest() {
+        histogram.add("com.ourcorp.cache.Entry", 100, 2400);
+        histogram.add("com.ourcorp.cache.lru.Node", 50, 1000);
+        histogram.add("com.ourcorp.web.Handler", 2, 48);
+        histogram.add("com.ourcorp.web.\"Quoted\"", 1, 16);
+        histogram.add("byte[]", 10, 1200);
+    }
+
+    @Test
+    public void exportsTopClassesAndOther() {
+        HistogramMetrics metrics = new HistogramMetrics(2);
+        metrics.update(histogram);
+        String text = metrics.getPrometheusText();
+        assertTrue(text.contains("jvm_class_histogram_bytes{class=\"com.ourcorp.cache.Entry\"} 2400\n"));
+        assertTrue(text.contains("jvm_class_histogram_bytes{class=\"byte[]\"} 1200\n"));
+        assertTrue(text.contains("jvm_class_histogram_bytes{class=\"<other>\"} 1064\n"));
+        assertTrue(text.contains("jvm_class_histogram_instances{class=\"<other>\"} 53\n"));
+        assertTrue(text.contains("jvm_class_histogram_total_bytes 4664\n"));
+        assertTrue(text.contains("jvm_class_histogram_total_instances 163\n"));
+        assertTrue(text.contains("jvm_class_histogram_timestamp_seconds 0.0\n"));
+        assertFalse(text.contains("Handler"));
+    }
+
+    @Test
+    public void escapesLabelValues() {
+        HistogramMetrics metrics = new HistogramMetrics(10);
+        metrics.update(histogram);
+        assertTrue(metrics.getPrometheusText()
+                .contains("jvm_class_histogram_bytes{class=\"com.ourcorp.web.\\\"Quoted\\\"\"} 16\n"));
+    }
+
+    @Test
+    public void groupsByPackage() {
+        HistogramMetrics metrics = new HistogramMetrics(10, 3);
+        metrics.update(histogram);
+        String text = metrics.getPrometheusText();
+        assertTrue(text.contains("jvm_class_histogram_bytes{package=\"com.ourcorp.cache\"} 3400\n"));
+        assertTrue(text.contains("jvm_class_histogram_instances{package=\"com.ourcorp.web\"} 3\n"));
+        assertTrue(text.contains("jvm_class_histogram_bytes{package=\"byte[]\"} 1200\n"));
+    }
+
+    @Test
+    public void groupsManyPackages() {
+        MemoryHistogram manyPackages = new MemoryHistogram();
+        for (int i = 0; i < 1000; i++) {
+            manyPackages.add("com.ourcorp.module" + i + ".Service", 1, 16 + i);
+            manyPackages.add("com.ourcorp.module" + i + ".Config", 1, 16);
+        }
+        HistogramMetrics metrics = new HistogramMetrics(2, 3);
+        metrics.update(manyPackages);
+        Map<String, Long> bytes = metrics.getBytes();
+        assertEquals(3, bytes.size());
+        assertEquals(Long.valueOf(1031), bytes.get("com.ourcorp.module999"));
+        assertEquals(Long.valueOf(1030), bytes.get("com.ourcorp.module998"));
+        assertEquals(Long.valueOf(1996), metrics.getInstances().get("<other>"));
+    }
+
+    @Test
+    public void describesLiveInstances() {
+        HistogramMetrics metrics = new HistogramMetrics(10);
+        metrics.update(histogram);
+        String text = metrics.getPrometheusText();
+        assertTrue(text.contains("# HELP jvm_class_histogram_bytes Bytes of live instances by class\n"));
+        assertTrue(text.contains("# HELP jvm_class_histogram_total_bytes Bytes of all live instances\n"));
+    }
+
+    @Test
+    public void describesUnreachableInstancesOfAllMode() {
+        HistogramMetrics metrics = new HistogramMetrics(10);
+        metrics.update(new Histogramer(HistogramMode.ALL).createHistogram());
+        String text = metrics.getPrometheusText();
+        assertTrue(text.contains("# HELP jvm_class_histogram_bytes Bytes of live and unreachable instances "
+                + "by class\n"));
+        assertTrue(text.contains("# HELP jvm_class_histogram_instances Number of live and unreachable instances "
+                + "by class\n"));
+        assertFalse(text.contains("of live instances"));
+    }
+
+    @Test
+    public void emptyBeforeFirstHistogram() {
+        HistogramMetrics metrics = new HistogramMetrics(10);
+        assertEquals("", metrics.getPrometheusText());
+        assertTrue(metrics.getBytes().isEmpty());
+    }
+
+    @Test
+    public void servesMetricsOverHttp() throws IOException {
+        try (HistogramMetrics metrics = new HistogramMetrics(10)) {
+            metrics.update(histogram);
+            HttpServer server = metrics.startHttpServer(new InetSocketAddress("localhost", 0));
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/metrics");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+            assertEquals(metrics.getPrometheusText(), read(connection.getInputStream()));
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void exposesMXBean() throws JMException {
+        try (HistogramMetrics metrics = new HistogramMetrics(2)) {
+            metrics.update(histogram);
+            ObjectName name = metrics.registerMBean();
+            Object total = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "TotalBytes");
+            assertEquals(4664L, total);
+            Map<String, Long> bytes = metrics.getBytes();
+            assertEquals(3, bytes.size());
+            assertEquals(Long.valueOf(1064), bytes.get(MemoryHistogram.OTHER_CLASSES));
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer()
+                .isRegistered(new ObjectName(HistogramMetrics.DEFAULT_OBJECT_NAME)));
+    }
+
+    private static String read(InputStream is) throws IOException {
+        try (InputStream in = is) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static com.jerolba.mnemotest.HistogramerTest.JCMD_OUTPUT;
+import static com.jerolba.mnemotest.HistogramerTest.fixedSource;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.HistogramSampler;
+import com.jerolba.jmnemohistosyne.Histogramer;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+
+public class HistogramSamplerTest {
+
+    private AtomicInteger captures = new AtomicInteger();
+
+    private Histogramer histogramer = new Histogramer(() -> {
+        int n = captures.incrementAndGet();
+        return fixedSource(JCMD_OUTPUT.replace("com.foo.Bar", "com.foo.Bar" + n)).execute();
+    });
+
+    private HistogramSampler sut = new HistogramSampler(histogramer, Duration.ofMinutes(1), 3);
+
+    @Test
+    public void retainsLastHistograms() {
+        assertNull(sut.getLatest());
+        for (int i = 0; i < 5; i++) {
+            sut.sample();
+        }
+        assertEquals(3, sut.size());
+        assertTrue(sut.get(0).get("com.foo.Bar3") != null);
+        assertTrue(sut.getLatest().get("com.foo.Bar5") != null);
+        assertSame(sut.get(2), sut.getLatest());
+        assertEquals(3, sut.getHistograms().size());
+        assertThrows(IndexOutOfBoundsException.class, () -> sut.get(3));
+    }
+
+    @Test
+    public void canDiffRetainedHistograms() {
+        sut.sample();
+        sut.sample();
+        MemoryHistogram diff = sut.diff(0, 1);
+        assertEquals(480, diff.get("com.foo.Bar2").getSize());
+        assertEquals(-480, diff.get("com.foo.Bar1").getSize());
+        assertNull(diff.get("byte[]"));
+    }
+
+    @Test
+    public void memoryLimitDiscardsOldestHistograms() {
+        sut.sample();
+        long footprint = sut.getRetainedMemory();
+        sut.setMaxMemory(footprint * 2);
+        sut.sample();
+        sut.sample();
+        assertEquals(2, sut.size());
+        assertTrue(sut.getLatest().get("com.foo.Bar3") != null);
+        sut.setMaxMemory(0);
+        assertEquals(1, sut.size());
+    }
+
+    @Test
+    public void notifiesListeners() {
+        AtomicInteger notified = new AtomicInteger();
+        sut.addListener(histogram -> notified.incrementAndGet());
+        sut.sample();
+        sut.sample();
+        assertEquals(2, notified.get());
+    }
+
+    @Test
+    public void capturesInBackground() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(3);
+        try (HistogramSampler sampler = new HistogramSampler(histogramer, Duration.ofMillis(10), 5)) {
+            sampler.setJitter(Duration.ofMillis(5));
+            sampler.addListener(histogram -> latch.countDown());
+            sampler.start();
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            sampler.pause();
+            int size = sampler.size();
+            Thread.sleep(100);
+            assertTrue(sampler.size() <= size + 1);
+        }
+    }
+
+}
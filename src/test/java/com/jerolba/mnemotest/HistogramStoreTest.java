@@ -0,0 +1,303 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.HistogramSeries;
+import com.jerolba.jmnemohistosyne.HistogramStore;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+
+public class HistogramStoreTest {
+
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("histogramstore");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void queriesClassHistory() throws IOException {
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(histogram(i), 1000 + i);
+            }
+            assertEquals(10, store.size());
+            assertEquals(2, segments());
+
+            HistogramSeries series = store.query("byte[]");
+            assertEquals(10, series.size());
+            assertEquals(1000, series.getTimestamps()[0]);
+            assertEquals(1009, series.getTimestamps()[9]);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(100 + i, series.getInstances()[i]);
+                assertEquals(1600 + i * 16, series.getBytes()[i]);
+            }
+
+            HistogramSeries range = store.query("byte[]", 1003, 1006);
+            assertArrayEquals(new long[] { 1003, 1004, 1005 }, range.getTimestamps());
+            assertArrayEquals(new long[] { 103, 104, 105 }, range.getInstances());
+        }
+    }
+
+    @Test
+    public void fillsMissingSnapshotsWithZeros() throws IOException {
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            for (int i = 0; i < 6; i++) {
+                store.append(histogram(i), 1000 + i);
+            }
+            HistogramSeries odd = store.query("com.foo.Odd");
+            assertArrayEquals(new long[] { 0, 1, 0, 3, 0, 5 }, odd.getInstances());
+            HistogramSeries unknown = store.query("com.foo.Unknown");
+            assertEquals(6, unknown.size());
+            assertArrayEquals(new long[6], unknown.getBytes());
+        }
+    }
+
+    @Test
+    public void queriesRangeOfLoggedSnapshots() throws IOException {
+        try (HistogramStore store = new HistogramStore(directory, 10)) {
+            for (int i = 0; i < 6; i++) {
+                store.append(histogram(i), 1000 + i);
+            }
+            assertArrayEquals(new long[] { 0, 3, 0 }, store.query("com.foo.Odd", 1002, 1005).getInstances());
+        }
+        try (HistogramStore store = new HistogramStore(directory, 10)) {
+            store.append(histogram(6), 1006);
+            assertArrayEquals(new long[] { 5, 0 }, store.query("com.foo.Odd", 1005, 1007).getInstances());
+            assertArrayEquals(new long[] { 104, 105, 106 }, store.query("byte[]", 1004, 1010).getInstances());
+        }
+    }
+
+    @Test
+    public void sealsLogIntoClassColumns() throws IOException {
+        try (HistogramStore store = new HistogramStore(directory, 5)) {
+            for (int i = 0; i < 4; i++) {
+                MemoryHistogram histogram = new MemoryHistogram();
+                histogram.add("com.foo.Class" + i, i, 1L << (i * 12));
+                histogram.add("com.foo.Shared", 1000 - i * 700, -i * 1_000_000_000_000L);
+                store.append(histogram, 1000 + i);
+            }
+            HistogramSeries logged = store.query("com.foo.Shared");
+            store.append(new MemoryHistogram(), 1004);
+
+            HistogramSeries sealed = store.query("com.foo.Shared");
+            assertArrayEquals(new long[] { 1000, 300, -400, -1100, 0 }, sealed.getInstances());
+            assertArrayEquals(logged.getBytes(), Arrays.copyOf(sealed.getBytes(), 4));
+            assertEquals(-3_000_000_000_000L, sealed.getBytes()[3]);
+            assertArrayEquals(new long[] { 0, 0, 0, 1L << 36, 0 }, store.query("com.foo.Class3").getBytes());
+            assertEquals(1, segments());
+        }
+    }
+
+    @Test
+    public void reopensStore() throws IOException {
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            for (int i = 0; i < 6; i++) {
+                store.append(histogram(i), 1000 + i);
+            }
+        }
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            assertEquals(6, store.size());
+            assertTrue(store.getClassNames().contains("com.foo.Odd"));
+            assertArrayEquals(new long[] { 100, 101, 102, 103, 104, 105 }, store.query("byte[]").getInstances());
+            assertThrows(IllegalArgumentException.class, () -> store.append(histogram(0), 1005));
+            store.append(histogram(6), 1006);
+            assertEquals(7, store.query("byte[]").size());
+        }
+    }
+
+    @Test
+    public void discardsPartiallyWrittenHistogram() throws IOException {
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            for (int i = 0; i < 6; i++) {
+                store.append(histogram(i), 1000 + i);
+            }
+        }
+        try (OutputStream os = Files.newOutputStream(directory.resolve("active.log"), StandardOpenOption.APPEND)) {
+            os.write(new byte[] { 0, 0, 0, 40, 0, 0, 0 });
+        }
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            assertEquals(6, store.size());
+            store.append(histogram(6), 1006);
+        }
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            assertEquals(7, store.size());
+        }
+    }
+
+    @Test
+    public void downsamplesOldSegments() throws IOException {
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(histogram(i), 1000 + i * 10);
+            }
+            store.downsample(1080, Duration.ofMillis(20));
+
+            HistogramSeries series = store.query("byte[]");
+            assertArrayEquals(new long[] { 1000, 1020, 1040, 1060, 1080, 1090 }, series.getTimestamps());
+            assertArrayEquals(new long[] { 101, 103, 105, 107, 108, 109 }, series.getInstances());
+            assertArrayEquals(new long[] { 8, 24, 40, 56, 0, 144 }, store.query("com.foo.Odd").getBytes());
+            assertEquals(1, segments());
+
+            store.downsample(1080, Duration.ofMillis(20));
+            assertArrayEquals(series.getTimestamps(), store.query("byte[]").getTimestamps());
+        }
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            assertEquals(6, store.size());
+            assertArrayEquals(new long[] { 101, 103, 105, 107, 108, 109 }, store.query("byte[]").getInstances());
+        }
+    }
+
+    @Test
+    public void weightsDownsampledSnapshots() throws IOException {
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            long[] timestamps = { 1000, 1001, 1002, 1020, 2000 };
+            long[] instances = { 10, 10, 10, 50, 1 };
+            for (int i = 0; i < timestamps.length; i++) {
+                MemoryHistogram histogram = new MemoryHistogram();
+                histogram.add("byte[]", instances[i], instances[i] * 16);
+                store.append(histogram, timestamps[i]);
+            }
+            store.downsample(1500, Duration.ofMillis(20));
+            assertArrayEquals(new long[] { 10, 50, 1 }, store.query("byte[]").getInstances());
+            store.downsample(1500, Duration.ofMillis(40));
+            assertArrayEquals(new long[] { 20, 1 }, store.query("byte[]").getInstances());
+            assertArrayEquals(new long[] { 320, 16 }, store.query("byte[]").getBytes());
+        }
+    }
+
+    @Test
+    public void completesInterruptedDownsample() throws IOException {
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(histogram(i), 1000 + i * 10);
+            }
+        }
+        Map<Path, byte[]> original = segmentFiles();
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            store.downsample(1080, Duration.ofMillis(20));
+        }
+        Map<Path, byte[]> downsampled = segmentFiles();
+        assertEquals(1, downsampled.size());
+
+        // Interrupted before writing the manifest
+        restore(original, downsampled);
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            assertEquals(10, store.size());
+            assertEquals(2, segments());
+        }
+
+        // Interrupted after writing the manifest
+        restore(original, downsampled);
+        List<String> manifest = new ArrayList<>();
+        for (Path path : downsampled.keySet()) {
+            manifest.add("move " + path.getFileName());
+        }
+        for (Path path : original.keySet()) {
+            manifest.add("delete " + path.getFileName());
+        }
+        Files.write(directory.resolve("replace.manifest"), manifest);
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            assertEquals(6, store.size());
+            assertArrayEquals(new long[] { 101, 103, 105, 107, 108, 109 }, store.query("byte[]").getInstances());
+            assertEquals(1, segments());
+        }
+    }
+
+    @Test
+    public void deletesOldSegments() throws IOException {
+        try (HistogramStore store = new HistogramStore(directory, 4)) {
+            for (int i = 0; i < 10; i++) {
+                store.append(histogram(i), 1000 + i);
+            }
+            store.deleteBefore(1005);
+            assertEquals(6, store.size());
+            assertEquals(1004, store.query("byte[]").getTimestamps()[0]);
+            assertEquals(1, segments());
+        }
+    }
+
+    private static MemoryHistogram histogram(int i) {
+        MemoryHistogram histogram = new MemoryHistogram();
+        histogram.add("byte[]", 100 + i, 1600 + i * 16);
+        histogram.add("java.lang.String", 50, 1200);
+        if (i % 2 == 1) {
+            histogram.add("com.foo.Odd", i, i * 16);
+        }
+        return histogram;
+    }
+
+    private Map<Path, byte[]> segmentFiles() throws IOException {
+        Map<Path, byte[]> files = new HashMap<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) paths.filter(p -> p.toString().endsWith(".seg"))::iterator) {
+                files.put(path, Files.readAllBytes(path));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Restores the original segments, with the downsampled segments written as
+     * temporary files
+     */
+    private void restore(Map<Path, byte[]> original, Map<Path, byte[]> downsampled) throws IOException {
+        for (Map.Entry<Path, byte[]> file : downsampled.entrySet()) {
+            Files.deleteIfExists(file.getKey());
+            Files.write(file.getKey().resolveSibling(file.getKey().getFileName() + ".tmp"), file.getValue());
+        }
+        for (Map.Entry<Path, byte[]> file : original.entrySet()) {
+            Files.write(file.getKey(), file.getValue());
+        }
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".seg")).count();
+        }
+    }
+
+}
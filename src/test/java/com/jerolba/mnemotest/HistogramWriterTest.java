@@ -0,0 +1,125 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.HistogramWriter;
+import com.jerolba.jmnemohistosyne.HistogramWriter.Format;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+
+public class HistogramWriterTest {
+
+    private MemoryHistogram histogram = new MemoryHistogram();
+
+    public HistogramWriterTest() {
+        histogram.add("byte[]", 25061, 2407712);
+        histogram.add("com.foo.Ñandú", 1, 24);
+        histogram.add("com.foo.\"Quoted,\"", -10, -240);
+        histogram.add("com.foo.Extra𝄞", 3, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void writesCsv() throws IOException {
+        StringWriter writer = new StringWriter();
+        new HistogramWriter(Format.CSV).write(histogram, writer);
+        assertEquals("class,instances,size\n"
+                + "byte[],25061,2407712\n"
+                + "com.foo.Ñandú,1,24\n"
+                + "\"com.foo.\"\"Quoted,\"\"\",-10,-240\n"
+                + "com.foo.Extra𝄞,3,9223372036854775807\n", writer.toString());
+    }
+
+    @Test
+    public void quotesToStringLikeCsv() throws IOException {
+        StringWriter writer = new StringWriter();
+        new HistogramWriter(Format.CSV).write(histogram, writer);
+        assertEquals(writer.toString(), histogram.toString() + "\n");
+        assertEquals("class,instances,size\n", new MemoryHistogram().toString());
+    }
+
+    @Test
+    public void writesJsonLines() throws IOException {
+        StringWriter writer = new StringWriter();
+        new HistogramWriter(Format.JSON_LINES).write(histogram, writer);
+        assertEquals("{\"class\":\"byte[]\",\"instances\":25061,\"size\":2407712}\n"
+                + "{\"class\":\"com.foo.Ñandú\",\"instances\":1,\"size\":24}\n"
+                + "{\"class\":\"com.foo.\\\"Quoted,\\\"\",\"instances\":-10,\"size\":-240}\n"
+                + "{\"class\":\"com.foo.Extra𝄞\",\"instances\":3,\"size\":9223372036854775807}\n",
+                writer.toString());
+    }
+
+    @Test
+    public void encodesStreamsAndChannelsInUtf8() throws IOException {
+        StringWriter writer = new StringWriter();
+        new HistogramWriter(Format.CSV).write(histogram, writer);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        new HistogramWriter(Format.CSV).write(histogram, stream);
+        assertEquals(writer.toString(), new String(stream.toByteArray(), UTF_8));
+        ByteArrayOutputStream channel = new ByteArrayOutputStream();
+        new HistogramWriter(Format.CSV).write(histogram, Channels.newChannel(channel));
+        assertEquals(writer.toString(), new String(channel.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void streamsBigHistogramsWithGzip() throws IOException {
+        MemoryHistogram big = new MemoryHistogram(20000);
+        for (int i = 0; i < 20000; i++) {
+            big.add("com.foo.Class" + i, i, i * 16L);
+        }
+        HistogramWriter writer = new HistogramWriter(Format.JSON_LINES, true);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writer.write(big, os);
+        StringWriter expected = new StringWriter();
+        new HistogramWriter(Format.JSON_LINES).write(big, expected);
+        assertEquals(expected.toString(), gunzip(os.toByteArray()));
+
+        ByteArrayOutputStream channel = new ByteArrayOutputStream();
+        writer.write(big, Channels.newChannel(channel));
+        assertEquals(expected.toString(), gunzip(channel.toByteArray()));
+    }
+
+    @Test
+    public void writerCanNotBeCompressed() {
+        HistogramWriter writer = new HistogramWriter(Format.CSV, true);
+        assertThrows(UnsupportedOperationException.class, () -> writer.write(histogram, new StringWriter()));
+    }
+
+    private static String gunzip(byte[] compressed) throws IOException {
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        }
+    }
+
+}
@@ -17,18 +17,50 @@ package com.jerolba.mnemotest;
 
 import static com.jerolba.jmnemohistosyne.Histogramer.getDiff;
 import static java.lang.Integer.toHexString;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.jerolba.jmnemohistosyne.HistogramEntry;
+import com.jerolba.jmnemohistosyne.HistogramMode;
+import com.jerolba.jmnemohistosyne.HistogramSource;
+import com.jerolba.jmnemohistosyne.Histogramer;
+import com.jerolba.jmnemohistosyne.JcmdHistogramSource;
 import com.jerolba.jmnemohistosyne.MemoryHistogram;
 
 public class HistogramerTest {
 
+    @BeforeEach
+    public void finalizePendingObjects() {
+        // Objects of other tests pending finalization would be released between the histograms of a diff
+        System.gc();
+        System.runFinalization();
+    }
+
     @Test
     public void simpleTest() {
         MemoryHistogram diff = getDiff(() -> {
@@ -85,4 +117,360 @@ public class HistogramerTest {
         private String name;
         private int age;
     }
+
+    static final String JCMD_OUTPUT = "12345:\n"
+            + " num     #instances         #bytes  class name (module)\n"
+            + "-------------------------------------------------------\n"
+            + "   1:         25061        2407712  [B (java.base@11.0.2)\n"
+            + "   2:         23522         564528  java.lang.String (java.base@11.0.2)\n"
+            + "   3:          5003         403872  [Ljava.lang.Object; (java.base@11.0.2)\n"
+            + "   4:           120          96000  com.jerolba.jmnemohistosyne.HistogramEntry\n"
+            + "   5:          2300          55200  java.util.HashMap$Node (java.base@11.0.2)\n"
+            + "   6:            10            480  com.foo.Bar\n"
+            + "Total         55014        3527792\n";
+
+    static HistogramSource fixedSource(String output) {
+        return () -> new ByteArrayInputStream(output.getBytes(UTF_8));
+    }
+
+    @Test
+    public void selfAccountedDiffRemovesLibraryFootprint() {
+        MemoryHistogram diff = Histogramer.getSelfAccountedDiff(() -> {
+            ArrayList<OtherStructure> root = new ArrayList<>(128);
+            for (int i = 0; i < 100; i++) {
+                root.add(new OtherStructure());
+            }
+            return root;
+        });
+        assertEquals(100, diff.get("com.jerolba.mnemotest.HistogramerTest$OtherStructure").getInstances());
+        assertEquals(1, diff.get("java.util.ArrayList").getInstances());
+        assertEquals(1, diff.get("Object[]").getInstances());
+        long measured = diff.get("com.jerolba.mnemotest.HistogramerTest$OtherStructure").getSize()
+                + diff.get("java.util.ArrayList").getSize() + diff.get("Object[]").getSize();
+        HistogramEntry fillers = diff.get("int[]");
+        long total = diff.getTotalMemory() - (fillers == null ? 0 : fillers.getSize());
+        assertEquals(measured, total, diff::toString);
+        for (HistogramEntry entry : diff) {
+            assertTrue(entry.getSize() > 0 || entry.getClassName().equals("int[]"), diff::toString);
+        }
+    }
+
+    @Test
+    public void parsesHistogramOutput() {
+        MemoryHistogram histogram = new Histogramer(fixedSource(JCMD_OUTPUT)).createHistogram();
+        assertEquals(5, histogram.size());
+        assertEquals(25061, histogram.get("byte[]").getInstances());
+        assertEquals(2407712, histogram.get("byte[]").getSize());
+        assertEquals(564528, histogram.get("String").getSize());
+        assertEquals(5003, histogram.get("Object[]").getInstances());
+        assertEquals(2300, histogram.get("java.util.HashMap$Node").getInstances());
+        assertEquals(480, histogram.get("com.foo.Bar").getSize());
+        assertNull(histogram.get("com.jerolba.jmnemohistosyne.HistogramEntry"));
+        Iterator<HistogramEntry> it = histogram.iterator();
+        assertEquals("byte[]", it.next().getClassName());
+        assertEquals("String", it.next().getClassName());
+    }
+
+    @Test
+    public void failsWithEmptyOutput() {
+        assertThrows(IllegalStateException.class, () -> new Histogramer(fixedSource("")).createHistogram());
+        String header = JCMD_OUTPUT.substring(0, JCMD_OUTPUT.indexOf("   1:"));
+        assertThrows(IllegalStateException.class, () -> new Histogramer(fixedSource(header)).createHistogram());
+    }
+
+    @Test
+    public void failsIfJcmdFails() {
+        Histogramer histogramer = new Histogramer(new JcmdHistogramSource("999999999"));
+        assertThrows(RuntimeException.class, histogramer::createHistogram);
+    }
+
+    @Test
+    public void parsesOutputWithCarriageReturns() {
+        String output = JCMD_OUTPUT.replace("\n", "\r\n");
+        MemoryHistogram histogram = new Histogramer(fixedSource(output)).createHistogram();
+        assertEquals(5, histogram.size());
+        assertEquals("com.foo.Bar", histogram.get("com.foo.Bar").getClassName());
+    }
+
+    @Test
+    public void reusesTranslatedNamesAcrossHistograms() {
+        Histogramer histogramer = new Histogramer(fixedSource(JCMD_OUTPUT));
+        MemoryHistogram first = histogramer.createHistogram();
+        MemoryHistogram second = histogramer.createHistogram();
+        assertEquals(5, second.size());
+        assertSame(first.get("Object[]").getClassName(), second.get("Object[]").getClassName());
+        assertEquals(5003, second.get("Object[]").getInstances());
+        assertNull(second.get("com.jerolba.jmnemohistosyne.HistogramEntry"));
+    }
+
+    @Test
+    public void diffsHistogramsOfDifferentHistogramers() {
+        MemoryHistogram reference = new Histogramer(fixedSource(JCMD_OUTPUT)).createHistogram();
+        String output = JCMD_OUTPUT.replace("25061        2407712", "25062        2407736").replace("com.foo.Bar",
+                "com.foo.Baz");
+        MemoryHistogram current = new Histogramer(fixedSource(output)).createHistogram();
+        MemoryHistogram diff = current.diff(reference);
+        assertEquals(3, diff.size());
+        assertEquals(1, diff.get("byte[]").getInstances());
+        assertEquals(24, diff.get("byte[]").getSize());
+        assertEquals(480, diff.get("com.foo.Baz").getSize());
+        assertEquals(-480, diff.get("com.foo.Bar").getSize());
+    }
+
+    @Test
+    public void releasesNamesOfClassesNotFoundAnymore() {
+        AtomicInteger captures = new AtomicInteger();
+        Histogramer histogramer = new Histogramer(() -> {
+            // Each capture finds 3000 new generated classes
+            StringBuilder sb = new StringBuilder(JCMD_OUTPUT.substring(0, JCMD_OUTPUT.indexOf("Total")));
+            int capture = captures.getAndIncrement();
+            for (int i = 0; i < 3000; i++) {
+                sb.append("   7:             1             16  com.foo.Generated").append(capture).append('_')
+                        .append(i).append('\n');
+            }
+            return new ByteArrayInputStream(sb.toString().getBytes(UTF_8));
+        });
+        MemoryHistogram first = histogramer.createHistogram();
+        MemoryHistogram last = first;
+        for (int i = 0; i < 10; i++) {
+            last = histogramer.createHistogram();
+        }
+        assertEquals(1, first.get("com.foo.Generated0_5").getInstances());
+        assertEquals(1, last.get("com.foo.Generated10_5").getInstances());
+        MemoryHistogram diff = last.diff(first);
+        assertEquals(6000, diff.size());
+        assertNull(diff.get("byte[]"));
+        assertEquals(-16, diff.get("com.foo.Generated0_5").getSize());
+    }
+
+    @Test
+    public void coalescesConcurrentRequests() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Histogramer histogramer = new Histogramer(() -> {
+            executions.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ByteArrayInputStream(JCMD_OUTPUT.getBytes(UTF_8));
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<MemoryHistogram>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(executor.submit(histogramer::createHistogram));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            MemoryHistogram first = futures.get(0).get();
+            for (Future<MemoryHistogram> future : futures.subList(1, futures.size())) {
+                assertNotSame(first, future.get());
+                assertEquals(first.size(), future.get().size());
+            }
+            assertEquals(1, executions.get());
+            // Each caller can modify its histogram without affecting the others
+            first.add("byte[]", 1, 16);
+            assertEquals(25061, futures.get(1).get().get("byte[]").getInstances());
+            assertEquals(25061, futures.get(2).get().get("byte[]").getInstances());
+            assertNotSame(first, histogramer.createHistogram());
+            assertEquals(2, executions.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reusesHistogramWithinMinInterval() {
+        AtomicInteger executions = new AtomicInteger();
+        Histogramer histogramer = new Histogramer(() -> {
+            executions.incrementAndGet();
+            return new ByteArrayInputStream(JCMD_OUTPUT.getBytes(UTF_8));
+        }).setMinInterval(Duration.ofHours(1));
+        MemoryHistogram first = histogramer.createHistogram();
+        first.add("byte[]", 1, 16);
+        MemoryHistogram second = histogramer.createHistogram();
+        assertEquals(1, executions.get());
+        assertNotSame(first, second);
+        assertEquals(25061, second.get("byte[]").getInstances());
+        assertEquals(2407712, second.get("byte[]").getSize());
+        histogramer.setMinInterval(Duration.ZERO);
+        assertNotSame(first, histogramer.createHistogram());
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void releasesFlightAfterError() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        Histogramer histogramer = new Histogramer(() -> {
+            if (executions.incrementAndGet() == 1) {
+                throw new OutOfMemoryError("Simulated");
+            }
+            return new ByteArrayInputStream(JCMD_OUTPUT.getBytes(UTF_8));
+        });
+        assertThrows(OutOfMemoryError.class, histogramer::createHistogram);
+        MemoryHistogram histogram = histogramer.createHistogramAsync().get(10, TimeUnit.SECONDS);
+        assertEquals(5, histogram.size());
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void createsHistogramAsync() throws Exception {
+        Histogramer histogramer = new Histogramer(fixedSource(JCMD_OUTPUT));
+        MemoryHistogram histogram = histogramer.createHistogramAsync().get(10, TimeUnit.SECONDS);
+        assertEquals(5, histogram.size());
+    }
+
+    @Test
+    public void cancellationClosesCaptureOutput() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        Histogramer histogramer = new Histogramer(() -> new InputStream() {
+
+            @Override
+            public int read() throws IOException {
+                reading.countDown();
+                try {
+                    closed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return -1;
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        });
+        CompletableFuture<MemoryHistogram> future = histogramer.createHistogramAsync();
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+        future.cancel(true);
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+        assertTrue(future.isCancelled());
+        // Joins the cancelled capture if it's still running, to not disturb other tests. Otherwise a new capture
+        // fails because the source output is empty.
+        RuntimeException e = assertThrows(RuntimeException.class, histogramer::createHistogram);
+        if (e.getCause() != null) {
+            assertEquals("Capture cancelled", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void cancellingOneRequestKeepsSharedCapture() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Histogramer histogramer = new Histogramer(blockedSource(executions, started, release));
+        CompletableFuture<MemoryHistogram> first = histogramer.createHistogramAsync();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<MemoryHistogram> second = histogramer.createHistogramAsync();
+        Thread.sleep(200);
+        first.cancel(true);
+        release.countDown();
+        assertEquals(5, second.get(10, TimeUnit.SECONDS).size());
+        assertTrue(first.isCancelled());
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void cancellingAllRequestsKillsSharedCapture() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Histogramer histogramer = new Histogramer(blockedSource(executions, started, release));
+        CompletableFuture<MemoryHistogram> first = histogramer.createHistogramAsync();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<MemoryHistogram> second = histogramer.createHistogramAsync();
+        Thread.sleep(200);
+        first.cancel(true);
+        second.cancel(true);
+        release.countDown();
+        // The killed capture is not shared with new requests
+        assertEquals(5, histogramer.createHistogram().size());
+        assertEquals(2, executions.get());
+    }
+
+    private static HistogramSource blockedSource(AtomicInteger executions, CountDownLatch started,
+            CountDownLatch release) {
+        return () -> {
+            executions.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ByteArrayInputStream(JCMD_OUTPUT.getBytes(UTF_8));
+        };
+    }
+
+    @Test
+    public void getDiffAsync() throws Exception {
+        MemoryHistogram diff = Histogramer.getDiffAsync(() -> {
+            ArrayList<OtherStructure> list = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                list.add(new OtherStructure());
+            }
+            return list;
+        }).get(30, TimeUnit.SECONDS);
+        assertEquals(100, diff.get("com.jerolba.mnemotest.HistogramerTest$OtherStructure").getInstances());
+    }
+
+    @Test
+    public void getDiffAsyncFailsIfCodeReturnsNull() {
+        CompletableFuture<MemoryHistogram> future = Histogramer.getDiffAsync(() -> null);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(30, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof NullPointerException);
+    }
+
+    @Test
+    public void getDiffAsyncFailsIfCodeThrowsError() {
+        CompletableFuture<MemoryHistogram> future = Histogramer.getDiffAsync(() -> {
+            throw new StackOverflowError("Simulated");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(30, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof StackOverflowError);
+    }
+
+    @Test
+    public void createHistogramAsyncFailsWithError() {
+        Histogramer histogramer = new Histogramer(() -> {
+            throw new OutOfMemoryError("Simulated");
+        });
+        CompletableFuture<MemoryHistogram> future = histogramer.createHistogramAsync();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof OutOfMemoryError);
+    }
+
+    @Test
+    public void capturesAllObjectsWithoutFullGc() {
+        MemoryHistogram histogram = new Histogramer(HistogramMode.ALL).createHistogram();
+        assertEquals(HistogramMode.ALL, histogram.getMode());
+        assertTrue(histogram.get("String").getInstances() > 0);
+        assertEquals(HistogramMode.ALL, histogram.getTop(10).getMode());
+    }
+
+    @Test
+    public void onlyComparesHistogramsOfSameMode() {
+        HistogramSource allSource = new HistogramSource() {
+
+            @Override
+            public InputStream execute() {
+                return new ByteArrayInputStream(JCMD_OUTPUT.getBytes(UTF_8));
+            }
+
+            @Override
+            public HistogramMode getMode() {
+                return HistogramMode.ALL;
+            }
+        };
+        MemoryHistogram live = new Histogramer(fixedSource(JCMD_OUTPUT)).createHistogram();
+        MemoryHistogram all = new Histogramer(allSource).createHistogram();
+        assertEquals(HistogramMode.LIVE, live.getMode());
+        assertEquals(HistogramMode.ALL, all.diff(all).getMode());
+        assertThrows(IllegalArgumentException.class, () -> all.diff(live));
+    }
+
 }
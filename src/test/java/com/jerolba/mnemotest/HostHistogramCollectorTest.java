@@ -0,0 +1,130 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static com.jerolba.mnemotest.HistogramerTest.JCMD_OUTPUT;
+import static com.jerolba.mnemotest.HistogramerTest.fixedSource;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.HistogramSource;
+import com.jerolba.jmnemohistosyne.HostHistogram;
+import com.jerolba.jmnemohistosyne.HostHistogramCollector;
+import com.jerolba.jmnemohistosyne.JcmdHistogramSource;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+
+public class HostHistogramCollectorTest {
+
+    @Test
+    public void collectsEachProcessAndAggregate() {
+        try (HostHistogramCollector collector = new HostHistogramCollector(pid -> fixedSource(JCMD_OUTPUT), 2,
+                Duration.ofSeconds(10))) {
+            HostHistogram host = collector.collect(Arrays.asList("1", "2", "3"));
+            assertEquals(3, host.getHistograms().size());
+            assertTrue(host.getErrors().isEmpty());
+            MemoryHistogram single = host.get("1");
+            MemoryHistogram aggregate = host.getAggregate();
+            assertEquals(single.size(), aggregate.size());
+            assertEquals(3 * single.getTotalMemory(), aggregate.getTotalMemory());
+            assertEquals(3 * single.get("String").getInstances(), aggregate.get("String").getInstances());
+        }
+    }
+
+    @Test
+    public void keepsLibraryClassesOfOtherProcesses() {
+        HistogramSource remote = new HistogramSource() {
+
+            @Override
+            public InputStream execute() throws IOException {
+                return fixedSource(JCMD_OUTPUT).execute();
+            }
+
+            @Override
+            public boolean isCurrentProcess() {
+                return false;
+            }
+        };
+        try (HostHistogramCollector collector = new HostHistogramCollector(pid -> remote, 1,
+                Duration.ofSeconds(10))) {
+            HostHistogram host = collector.collect(Arrays.asList("1"));
+            assertEquals(96000, host.get("1").get("com.jerolba.jmnemohistosyne.HistogramEntry").getSize());
+        }
+        assertFalse(new JcmdHistogramSource("999999999").isCurrentProcess());
+        assertTrue(new JcmdHistogramSource().isCurrentProcess());
+    }
+
+    @Test
+    public void reportsFailedProcesses() {
+        HistogramSource failing = () -> {
+            throw new IOException("No such process");
+        };
+        try (HostHistogramCollector collector = new HostHistogramCollector(
+                pid -> pid.equals("2") ? failing : fixedSource(JCMD_OUTPUT), 2, Duration.ofSeconds(10))) {
+            HostHistogram host = collector.collect(Arrays.asList("1", "2"));
+            assertEquals(1, host.getHistograms().size());
+            assertNull(host.get("2"));
+            assertEquals(1, host.getErrors().size());
+            assertEquals(host.get("1").getTotalMemory(), host.getAggregate().getTotalMemory());
+        }
+    }
+
+    @Test
+    public void expiresSlowProcesses() {
+        HistogramSource blocked = () -> new BlockedInputStream();
+        try (HostHistogramCollector collector = new HostHistogramCollector(
+                pid -> pid.equals("2") ? blocked : fixedSource(JCMD_OUTPUT), 1, Duration.ofMillis(200))) {
+            HostHistogram host = collector.collect(Arrays.asList("1", "2", "3"));
+            assertEquals(2, host.getHistograms().size());
+            assertTrue(host.getErrors().get("2") instanceof TimeoutException);
+        }
+    }
+
+    /**
+     * Stream which blocks reading until it's closed, like a hung jcmd process
+     */
+    private static class BlockedInputStream extends InputStream {
+
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public int read() throws IOException {
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Stream closed");
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+    }
+
+}
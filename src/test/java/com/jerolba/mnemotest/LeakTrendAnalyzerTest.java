@@ -0,0 +1,86 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.LeakSuspect;
+import com.jerolba.jmnemohistosyne.LeakTrendAnalyzer;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+
+public class LeakTrendAnalyzerTest {
+
+    private LeakTrendAnalyzer sut = new LeakTrendAnalyzer();
+
+    private static final long[] NOISE = { 500, 900, 300, 800, 400, 700 };
+
+    private void addHistograms(int n) {
+        for (int i = 0; i < n; i++) {
+            MemoryHistogram histogram = new MemoryHistogram();
+            histogram.add("com.leak.Leaked", 10 * (i + 1), 100 * (i + 1));
+            histogram.add("com.leak.Stable", 5, 200);
+            histogram.add("com.leak.Noisy", NOISE[i] / 10, NOISE[i]);
+            histogram.add("com.leak.Shrinking", 100 - i, 1000 - 10 * i);
+            if (i >= 2) {
+                histogram.add("com.leak.Late", i, 50 * i);
+            }
+            sut.add(histogram);
+        }
+    }
+
+    @Test
+    public void needsSomeHistogramsToReport() {
+        addHistograms(2);
+        assertTrue(sut.getSuspects().isEmpty());
+    }
+
+    @Test
+    public void detectsMonotonicGrowth() {
+        addHistograms(6);
+        assertEquals(6, sut.getHistogramsCount());
+        List<LeakSuspect> suspects = sut.getSuspects(0.99);
+        assertEquals(1, suspects.size());
+        LeakSuspect leaked = suspects.get(0);
+        assertEquals("com.leak.Leaked", leaked.getClassName());
+        assertEquals(100.0, leaked.getSizeSlope(), 1e-9);
+        assertEquals(10.0, leaked.getInstancesSlope(), 1e-9);
+        assertEquals(1.0, leaked.getConfidence(), 1e-9);
+        assertEquals(600, leaked.getSize());
+        assertEquals(60, leaked.getInstances());
+    }
+
+    @Test
+    public void ranksSuspectsByConfidence() {
+        addHistograms(6);
+        List<LeakSuspect> suspects = sut.getSuspects();
+        assertEquals("com.leak.Leaked", suspects.get(0).getClassName());
+        assertEquals("com.leak.Late", suspects.get(1).getClassName());
+        assertTrue(suspects.get(1).getConfidence() < 1.0);
+        assertTrue(suspects.stream().noneMatch(s -> s.getClassName().equals("com.leak.Stable")));
+        assertTrue(suspects.stream().noneMatch(s -> s.getClassName().equals("com.leak.Shrinking")));
+        for (LeakSuspect suspect : suspects) {
+            if (suspect.getClassName().equals("com.leak.Noisy")) {
+                assertTrue(suspect.getConfidence() < 0.5);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+import com.jerolba.jmnemohistosyne.junit.MemoryBudget;
+import com.jerolba.jmnemohistosyne.junit.MemoryBudgetExtension;
+
+/**
+ * Calls the extension directly with a minimal ExtensionContext, because failing
+ * budgets can not be verified from tests executed by the JUnit engine itself
+ */
+public class MemoryBudgetExtensionTest {
+
+    private static final String NODE = "com.jerolba.mnemotest.MemoryBudgetExtensionTest$Node";
+    private static final String TOP_HEADER = "class,instances,size\n";
+
+    private final MemoryBudgetExtension extension = new MemoryBudgetExtension();
+    private List<Node> nodes = new ArrayList<>();
+
+    @Test
+    public void failsExceedingMaxBytes() throws Exception {
+        TestContext context = new TestContext(Budgets.class.getDeclaredMethod("maxBytes"), null);
+        extension.beforeTestExecution(context);
+        retainNodes();
+        AssertionError error = assertThrows(AssertionError.class, () -> extension.afterTestExecution(context));
+        String message = error.getMessage();
+        assertTrue(message.startsWith("maxBytes retained "), message);
+        assertTrue(message.contains(" bytes, exceeding budget of 1024 bytes. Top classes:\n" + TOP_HEADER + NODE
+                + ",200,"), message);
+    }
+
+    @Test
+    public void failsExceedingMaxBytesPerClass() throws Exception {
+        TestContext context = new TestContext(Budgets.class.getDeclaredMethod("maxBytesPerClass"), null);
+        extension.beforeTestExecution(context);
+        retainNodes();
+        AssertionError error = assertThrows(AssertionError.class, () -> extension.afterTestExecution(context));
+        String message = error.getMessage();
+        assertTrue(message.startsWith("maxBytesPerClass retained "), message);
+        assertTrue(message.contains(" bytes of " + NODE + ", exceeding budget of 1024 bytes per class. Top classes:\n"
+                + TOP_HEADER + NODE + ",200,"), message);
+    }
+
+    @Test
+    public void doesNotVerifyFailedTests() throws Exception {
+        TestContext context = new TestContext(Budgets.class.getDeclaredMethod("maxBytes"),
+                new IllegalStateException());
+        extension.beforeTestExecution(context);
+        retainNodes();
+        extension.afterTestExecution(context);
+    }
+
+    private void retainNodes() {
+        for (int i = 0; i < 200; i++) {
+            nodes.add(new Node(i));
+        }
+    }
+
+    private static class Node {
+
+        @SuppressWarnings("unused")
+        private final long value;
+
+        Node(long value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Annotated methods used as test methods of the context, not executed
+     */
+    private static class Budgets {
+
+        @MemoryBudget(maxBytes = 1024, classes = NODE)
+        void maxBytes() {
+        }
+
+        @MemoryBudget(maxBytesPerClass = 1024, classes = NODE)
+        void maxBytesPerClass() {
+        }
+    }
+
+    /**
+     * Context of a test method with a per method lifecycle, whose parent is the
+     * context of its class. Each context has a single store for all namespaces.
+     */
+    private static class TestContext implements ExtensionContext {
+
+        private final TestContext parent;
+        private final Method method;
+        private final Throwable exception;
+        private final MapStore store = new MapStore();
+
+        TestContext(Method method, Throwable exception) {
+            this.parent = new TestContext(null, method, null);
+            this.method = method;
+            this.exception = exception;
+        }
+
+        private TestContext(TestContext parent, Method method, Throwable exception) {
+            this.parent = parent;
+            this.method = method;
+            this.exception = exception;
+        }
+
+        @Override
+        public Optional<ExtensionContext> getParent() {
+            return Optional.ofNullable(parent);
+        }
+
+        @Override
+        public ExtensionContext getRoot() {
+            return parent == null ? this : parent;
+        }
+
+        @Override
+        public String getUniqueId() {
+            return method.toString();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return parent == null ? method.getDeclaringClass().getSimpleName() : method.getName();
+        }
+
+        @Override
+        public Set<String> getTags() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Optional<AnnotatedElement> getElement() {
+            return Optional.of(parent == null ? method.getDeclaringClass() : method);
+        }
+
+        @Override
+        public Optional<Class<?>> getTestClass() {
+            return Optional.of(method.getDeclaringClass());
+        }
+
+        @Override
+        public Optional<Lifecycle> getTestInstanceLifecycle() {
+            return Optional.of(Lifecycle.PER_METHOD);
+        }
+
+        @Override
+        public Optional<Object> getTestInstance() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<Method> getTestMethod() {
+            return parent == null ? Optional.empty() : Optional.of(method);
+        }
+
+        @Override
+        public Optional<Throwable> getExecutionException() {
+            return Optional.ofNullable(exception);
+        }
+
+        @Override
+        public Optional<String> getConfigurationParameter(String key) {
+            return Optional.empty();
+        }
+
+        @Override
+        public void publishReportEntry(Map<String, String> map) {
+        }
+
+        @Override
+        public Store getStore(Namespace namespace) {
+            return store;
+        }
+    }
+
+    private static class MapStore implements ExtensionContext.Store {
+
+        private final Map<Object, Object> values = new HashMap<>();
+
+        @Override
+        public Object get(Object key) {
+            return values.get(key);
+        }
+
+        @Override
+        public <V> V get(Object key, Class<V> requiredType) {
+            return requiredType.cast(values.get(key));
+        }
+
+        @Override
+        public <K, V> Object getOrComputeIfAbsent(K key, Function<K, V> defaultCreator) {
+            return values.computeIfAbsent(key, k -> defaultCreator.apply(key));
+        }
+
+        @Override
+        public <K, V> V getOrComputeIfAbsent(K key, Function<K, V> defaultCreator, Class<V> requiredType) {
+            return requiredType.cast(getOrComputeIfAbsent(key, defaultCreator));
+        }
+
+        @Override
+        public void put(Object key, Object value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return values.remove(key);
+        }
+
+        @Override
+        public <V> V remove(Object key, Class<V> requiredType) {
+            return requiredType.cast(values.remove(key));
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.junit.MemoryBudget;
+
+@MemoryBudget(maxBytes = 16 * 1024, classes = "com.jerolba.mnemotest.MemoryBudgetTest$*")
+public class MemoryBudgetTest {
+
+    private List<Node> nodes = new ArrayList<>();
+
+    @Test
+    public void retainsUnderClassBudget() {
+        for (int i = 0; i < 100; i++) {
+            nodes.add(new Node(i));
+        }
+    }
+
+    @Test
+    public void retainsNothing() {
+        new Node(1);
+    }
+
+    @Test
+    @MemoryBudget(maxBytesPerClass = 4 * 1024, classes = "com.jerolba.mnemotest.MemoryBudgetTest$Node")
+    public void retainsUnderMethodBudget() {
+        for (int i = 0; i < 50; i++) {
+            nodes.add(new Node(i));
+        }
+    }
+
+    @Test
+    @MemoryBudget(maxBytes = 1024, classes = "com.jerolba.mnemotest.MemoryBudgetTest$Node", sharedBaseline = true)
+    public void measuresWithSharedBaseline() {
+        for (int i = 0; i < 10; i++) {
+            nodes.add(new Node(i));
+        }
+    }
+
+    private static class Node {
+
+        @SuppressWarnings("unused")
+        private final long value;
+
+        Node(long value) {
+            this.value = value;
+        }
+    }
+
+}
@@ -30,7 +30,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import com.jerolba.jmnemohistosyne.DiffOptions;
 import com.jerolba.jmnemohistosyne.HistogramEntry;
+import com.jerolba.jmnemohistosyne.HistogramFilter;
+import com.jerolba.jmnemohistosyne.HistogramKey;
 import com.jerolba.jmnemohistosyne.MemoryHistogram;
 
 public class MemoryHistogramTest {
@@ -59,6 +62,32 @@ public class MemoryHistogramTest {
         assertFalse(it.hasNext());
     }
 
+    @Test
+    public void canAddManyEntriesKeepingInsertionOrder() {
+        MemoryHistogram histogram = new MemoryHistogram(10);
+        for (int i = 0; i < 5000; i++) {
+            histogram.add(new HistogramEntry("com.foo.Class" + i, i, i * 16));
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i * 16, histogram.get("com.foo.Class" + i).getSize());
+        }
+        assertNull(histogram.get("com.foo.Class5000"));
+        Iterator<HistogramEntry> it = histogram.iterator();
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("com.foo.Class" + i, it.next().getClassName());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void addReplacesExistingEntry() {
+        sut.add(fooEntry);
+        sut.add(barEntry);
+        sut.add(new HistogramEntry("java.util.Foo", 110, 2600));
+        assertEquals(110, sut.get("java.util.Foo").getInstances());
+        assertEquals("java.util.Foo", sut.iterator().next().getClassName());
+    }
+
     @Nested
     class Filtering {
 
@@ -100,6 +129,45 @@ public class MemoryHistogramTest {
             assertNull(filter.get("java.util.Bar"));
         }
 
+        @Test
+        public void matchingSeveralCriteriaDoesntDuplicateEntries() {
+            MemoryHistogram filter = sut.filter("java.util.*", "java.util.Foo", Pattern.compile("Foo"),
+                    Pattern.compile("Ba"));
+            assertEquals(4, filter.size());
+            Iterator<HistogramEntry> it = filter.iterator();
+            assertEquals("java.util.Foo", it.next().getClassName());
+            assertEquals("java.util.Bar", it.next().getClassName());
+            assertEquals("java.lang.Baz", it.next().getClassName());
+            assertEquals("java.util.ArrayList", it.next().getClassName());
+        }
+
+        @Test
+        public void compiledFilterCanBeReused() {
+            HistogramFilter compiled = HistogramFilter.compile("java.lang.*", ArrayList.class,
+                    Pattern.compile("foo$", Pattern.CASE_INSENSITIVE));
+            assertTrue(compiled.matches("java.util.Foo"));
+            assertTrue(compiled.matches("java.lang.Baz"));
+            assertFalse(compiled.matches("java.util.Bar"));
+            assertEquals(3, sut.filter(compiled).size());
+            MemoryHistogram other = new MemoryHistogram();
+            other.add(barEntry);
+            other.add(javaLangEntry);
+            assertEquals(1, other.filter(compiled).size());
+        }
+
+        @Test
+        public void wildcardMatchesEverything() {
+            assertEquals(4, sut.filter("*").size());
+        }
+
+        @Test
+        public void canCombinePatternsWithBackReferences() {
+            MemoryHistogram filter = sut.filter(Pattern.compile("(o)\\1"), Pattern.compile("Bar"));
+            assertNotNull(filter.get("java.util.Foo"));
+            assertNotNull(filter.get("java.util.Bar"));
+            assertNull(filter.get("java.lang.Baz"));
+        }
+
         @Test
         public void unsuportedCriteriaRaiseException() {
             assertThrows(UnsupportedOperationException.class, () -> {
@@ -164,6 +232,60 @@ public class MemoryHistogramTest {
             assertNull(diff.get("java.util.ArrayList"));
         }
 
+        @Test
+        public void diffIncludesRemovedClasses() {
+            reference.add(new HistogramEntry("java.util.Removed", 3, 72));
+            MemoryHistogram diff = sut.diff(reference);
+            assertEquals(-3, diff.get("java.util.Removed").getInstances());
+            assertEquals(-72, diff.get("java.util.Removed").getSize());
+            assertEquals(1440 + 20 + 90 - 72, diff.getTotalMemory());
+        }
+
+        @Test
+        public void canPruneSmallChanges() {
+            MemoryHistogram diff = sut.diff(reference, DiffOptions.all().minBytes(50));
+            assertEquals(1440, diff.get("java.util.Foo").getSize());
+            assertEquals(90, diff.get("java.lang.Baz").getSize());
+            assertNull(diff.get("java.util.Bar"));
+            assertEquals(20, diff.get(MemoryHistogram.OTHER_CLASSES).getSize());
+            assertEquals(1, diff.get(MemoryHistogram.OTHER_CLASSES).getInstances());
+            assertEquals(sut.diff(reference).getTotalMemory(), diff.getTotalMemory());
+        }
+
+        @Test
+        public void canPruneByRelativeChange() {
+            MemoryHistogram diff = sut.diff(reference, DiffOptions.all().minRelativeChange(1.0));
+            assertEquals(1440, diff.get("java.util.Foo").getSize());
+            assertEquals(90, diff.get("java.lang.Baz").getSize());
+            assertNull(diff.get("java.util.Bar"));
+        }
+
+        @Test
+        public void canKeepOnlyGrowth() {
+            reference.add(new HistogramEntry("java.util.Removed", 3, 72));
+            MemoryHistogram diff = sut.diff(reference, DiffOptions.all().growthOnly());
+            assertNull(diff.get("java.util.Removed"));
+            assertEquals(-72, diff.get(MemoryHistogram.OTHER_CLASSES).getSize());
+        }
+
+        @Test
+        public void canKeepTopChanges() {
+            reference.add(new HistogramEntry("java.util.Removed", 30, 7200));
+            MemoryHistogram diff = sut.diff(reference, DiffOptions.all().top(2));
+            Iterator<HistogramEntry> iterator = diff.iterator();
+            assertEquals("java.util.Foo", iterator.next().getClassName());
+            assertEquals("java.util.Removed", iterator.next().getClassName());
+            HistogramEntry other = iterator.next();
+            assertEquals(MemoryHistogram.OTHER_CLASSES, other.getClassName());
+            assertEquals(90 + 20, other.getSize());
+            assertFalse(iterator.hasNext());
+        }
+
+        @Test
+        public void completeDiffHasNoOtherEntry() {
+            assertNull(sut.diff(reference).get(MemoryHistogram.OTHER_CLASSES));
+        }
+
         @Test
         void diffIsSortedBySize() {
             MemoryHistogram diff = sut.diff(reference);
@@ -202,4 +324,44 @@ public class MemoryHistogramTest {
         assertFalse(iterator.hasNext());
     }
 
+    @Test
+    public void topByKeySelectsGreatestEntries() {
+        sut.add(javaLangEntry);
+        sut.add(arrayListEntry);
+        sut.add(barEntry);
+        sut.add(fooEntry);
+        MemoryHistogram top = sut.getTop(2, HistogramKey.SIZE);
+        Iterator<HistogramEntry> iterator = top.iterator();
+        assertEquals("java.util.Foo", iterator.next().getClassName());
+        assertEquals("java.util.Bar", iterator.next().getClassName());
+        assertFalse(iterator.hasNext());
+
+        iterator = sut.getTop(3, HistogramKey.AVERAGE_SIZE).iterator();
+        assertEquals("java.util.ArrayList", iterator.next().getClassName());
+        assertEquals("java.util.Foo", iterator.next().getClassName());
+        assertEquals("java.util.Bar", iterator.next().getClassName());
+
+        assertEquals("java.util.Foo", sut.getTop(1, HistogramKey.INSTANCES).iterator().next().getClassName());
+        assertEquals(4, sut.getTop(10, HistogramKey.INSTANCES).size());
+        assertEquals(0, sut.getTop(0, HistogramKey.INSTANCES).size());
+    }
+
+    @Test
+    public void topByAbsoluteSizeIncludesDecreases() {
+        sut.add(new HistogramEntry("java.util.Foo", 10, 100));
+        sut.add(new HistogramEntry("java.util.Bar", -50, -5000));
+        sut.add(new HistogramEntry("java.util.Baz", 1, 200));
+        Iterator<HistogramEntry> iterator = sut.getTop(2, HistogramKey.ABSOLUTE_SIZE).iterator();
+        assertEquals("java.util.Bar", iterator.next().getClassName());
+        assertEquals("java.util.Baz", iterator.next().getClassName());
+    }
+
+    @Test
+    public void entriesCompareBigSizes() {
+        HistogramEntry big = new HistogramEntry("java.util.Big", 1, 5_000_000_000L);
+        HistogramEntry small = new HistogramEntry("java.util.Small", 1, 10);
+        assertTrue(big.compareTo(small) < 0);
+        assertTrue(small.compareTo(big) > 0);
+    }
+
 }
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static com.jerolba.mnemotest.HistogramerTest.fixedSource;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.Histogramer;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+import com.jerolba.jmnemohistosyne.NameNormalization;
+
+public class NameNormalizationTest {
+
+    private static final String SYNTHETIC_OUTPUT = "12345:\n"
+            + " num     #instances         #bytes  class name (module)\n"
+            + "-------------------------------------------------------\n"
+            + "   1:            10            160  com.foo.Bar$$Lambda$1234/0x0000000800c4a440\n"
+            + "   2:             5             80  com.foo.Bar$$Lambda$1235/0x0000000800c4a880\n"
+            + "   3:             2             32  com.foo.Bar$$Lambda/0x0000000800c4b000\n"
+            + "   4:             1             16  jdk.proxy2.$Proxy57 (jdk.proxy2)\n"
+            + "   5:             1             16  jdk.proxy3.$Proxy58 (jdk.proxy3)\n"
+            + "   6:             3             72  com.foo.Service$$EnhancerByCGLIB$$8b4a2f1c\n"
+            + "   7:             1             24  com.foo.Service$$FastClassBySpringCGLIB$$8b4a2f1c_2\n"
+            + "   8:             4             64  sun.reflect.GeneratedMethodAccessor812\n"
+            + "   9:             4             64  sun.reflect.GeneratedMethodAccessor813\n"
+            + "  10:             7            336  [Lcom.foo.Bar$$Lambda$1234.0x0000000800c4a440;\n"
+            + "  11:             1             16  com.foo.Plain\n"
+            + "Total            39            880\n";
+
+    @Test
+    public void normalizesSyntheticClasses() {
+        NameNormalization normalization = NameNormalization.synthetic();
+        assertEquals("com.foo.Bar$$Lambda", normalization.normalize("com.foo.Bar$$Lambda$1234/0x0000000800c4a440"));
+        assertEquals("com.foo.Bar$$Lambda", normalization.normalize("com.foo.Bar$$Lambda$12/1735600054"));
+        assertEquals("jdk.proxy.$Proxy", normalization.normalize("jdk.proxy2.$Proxy57"));
+        assertEquals("com.sun.proxy.$Proxy", normalization.normalize("com.sun.proxy.$Proxy12"));
+        assertEquals("com.foo.Service$$EnhancerByCGLIB",
+                normalization.normalize("com.foo.Service$$EnhancerByCGLIB$$8b4a2f1c"));
+        assertEquals("com.foo.Service$$SpringCGLIB", normalization.normalize("com.foo.Service$$SpringCGLIB$$0"));
+        assertEquals("jdk.internal.reflect.GeneratedConstructorAccessor",
+                normalization.normalize("jdk.internal.reflect.GeneratedConstructorAccessor3"));
+        assertEquals("com.foo.Plain", normalization.normalize("com.foo.Plain"));
+    }
+
+    @Test
+    public void aggregatesNormalizedClasses() {
+        MemoryHistogram histogram = new Histogramer(fixedSource(SYNTHETIC_OUTPUT))
+                .setNormalization(NameNormalization.synthetic()).createHistogram();
+        assertEquals(7, histogram.size());
+        assertEquals(17, histogram.get("com.foo.Bar$$Lambda").getInstances());
+        assertEquals(272, histogram.get("com.foo.Bar$$Lambda").getSize());
+        assertEquals(2, histogram.get("jdk.proxy.$Proxy").getInstances());
+        assertEquals(3, histogram.get("com.foo.Service$$EnhancerByCGLIB").getInstances());
+        assertEquals(1, histogram.get("com.foo.Service$$FastClassBySpringCGLIB").getInstances());
+        assertEquals(128, histogram.get("sun.reflect.GeneratedMethodAccessor").getSize());
+        assertEquals(880, histogram.getTotalMemory());
+    }
+
+    @Test
+    public void customRules() {
+        NameNormalization normalization = NameNormalization.none().add("^com\\.foo\\..*", "com.foo.*");
+        MemoryHistogram histogram = new Histogramer(fixedSource(SYNTHETIC_OUTPUT)).setNormalization(normalization)
+                .createHistogram();
+        assertEquals(17 + 3 + 1 + 7 + 1, histogram.get("com.foo.*").getInstances());
+        assertNull(histogram.get("com.foo.Plain"));
+    }
+
+    @Test
+    public void doesNotNormalizeByDefault() {
+        MemoryHistogram histogram = new Histogramer(fixedSource(SYNTHETIC_OUTPUT)).createHistogram();
+        assertEquals(11, histogram.size());
+        assertEquals(10, histogram.get("com.foo.Bar$$Lambda$1234/0x0000000800c4a440").getInstances());
+    }
+
+}
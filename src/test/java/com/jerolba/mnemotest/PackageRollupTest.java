@@ -0,0 +1,89 @@
+/**
+ * Copyright 2019 Jerónimo López Bezanilla
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jerolba.mnemotest;
+
+import static com.jerolba.mnemotest.HistogramerTest.JCMD_OUTPUT;
+import static com.jerolba.mnemotest.HistogramerTest.fixedSource;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.jerolba.jmnemohistosyne.Histogramer;
+import com.jerolba.jmnemohistosyne.MemoryHistogram;
+import com.jerolba.jmnemohistosyne.PackageRollup;
+import com.jerolba.jmnemohistosyne.RollupNode;
+
+public class PackageRollupTest {
+
+    private MemoryHistogram histogram = new MemoryHistogram();
+
+    public PackageRollupTest() {
+        histogram.add("com.ourcorp.cache.Entry", 100, 2400);
+        histogram.add("com.ourcorp.cache.lru.Node", 50, 1000);
+        histogram.add("com.ourcorp.cache.Entry[]", 1, 416);
+        histogram.add("com.ourcorp.web.Handler", 2, 48);
+        histogram.add("String", 10, 240);
+        histogram.add("byte[]", 10, 1000);
+    }
+
+    @Test
+    public void aggregatesPackagesAndSubpackages() {
+        PackageRollup rollup = PackageRollup.of(histogram);
+        assertEquals(2400 + 1000 + 416, rollup.getSize("com.ourcorp.cache"));
+        assertEquals(151, rollup.getInstances("com.ourcorp.cache.*"));
+        assertEquals(1000, rollup.getSize("com.ourcorp.cache.lru"));
+        assertEquals(2400 + 1000 + 416 + 48, rollup.getSize("com.ourcorp"));
+        assertEquals(240, rollup.getSize("java.lang"));
+        assertEquals(histogram.getTotalMemory(), rollup.getRoot().getSize());
+        assertEquals(0, rollup.getSize("org.other"));
+        assertNull(rollup.getPackage("org.other"));
+    }
+
+    @Test
+    public void navigatesPackageTree() {
+        PackageRollup rollup = PackageRollup.of(histogram);
+        RollupNode ourcorp = rollup.getPackage("com.ourcorp");
+        assertEquals(2, ourcorp.getChildren().size());
+        assertEquals("com.ourcorp.cache", ourcorp.getChildren().get(0).getName());
+        assertEquals("com.ourcorp.web", ourcorp.getChildren().get(1).getName());
+    }
+
+    @Test
+    public void groupsByModule() {
+        MemoryHistogram parsed = new Histogramer(fixedSource(JCMD_OUTPUT)).createHistogram();
+        PackageRollup rollup = PackageRollup.of(parsed);
+        assertEquals(2407712 + 564528 + 403872 + 55200, rollup.getModule("java.base").getSize());
+        assertEquals(480, rollup.getModule(PackageRollup.UNNAMED_MODULE).getSize());
+        assertEquals(2, rollup.getModules().size());
+    }
+
+    @Test
+    public void canDiffRollups() {
+        MemoryHistogram next = new MemoryHistogram();
+        next.add("com.ourcorp.cache.Entry", 150, 3600);
+        next.add("com.ourcorp.web.Handler", 2, 48);
+        next.add("org.other.Foo", 1, 16);
+        PackageRollup diff = PackageRollup.of(next).diff(PackageRollup.of(histogram));
+        assertEquals(1200 - 1000 - 416, diff.getSize("com.ourcorp.cache"));
+        assertEquals(-1000, diff.getSize("com.ourcorp.cache.lru"));
+        assertEquals(0, diff.getSize("com.ourcorp.web"));
+        assertEquals(16, diff.getSize("org"));
+        assertEquals(-240, diff.getSize("java.lang"));
+        assertEquals(next.getTotalMemory() - histogram.getTotalMemory(), diff.getRoot().getSize());
+    }
+
+}